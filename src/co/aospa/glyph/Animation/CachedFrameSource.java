@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Animation;
+
+/**
+ * Plays a decoded {@link GlyphAnimation}. The frames are shared, several
+ * sources can play the same cached animation at once.
+ */
+public final class CachedFrameSource implements FrameSource {
+
+    private final GlyphAnimation animation;
+    private int position = 0;
+
+    public CachedFrameSource(GlyphAnimation animation) {
+        this.animation = animation;
+    }
+
+    @Override
+    public int getLedCount() {
+        return animation.getLedCount();
+    }
+
+    @Override
+    public int getFrameCount() {
+        return animation.getFrameCount();
+    }
+
+    @Override
+    public int getFps() {
+        return animation.getFps();
+    }
+
+    @Override
+    public boolean nextFrame(int[] dst) {
+        if (position >= animation.getFrameCount()) return false;
+        animation.getFrame(position++, dst);
+        return true;
+    }
+
+    @Override
+    public boolean skipFrames(int count, int[] scratch) {
+        if ((long) position + count > animation.getFrameCount()) {
+            position = animation.getFrameCount();
+            return false;
+        }
+        position += count;
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        position = 0;
+    }
+}
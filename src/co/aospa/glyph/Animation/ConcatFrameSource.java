@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Animation;
+
+import java.io.IOException;
+
+/** Plays sources one after the other. They must share the LED layout and frame rate. */
+public final class ConcatFrameSource implements FrameSource {
+
+    private final FrameSource[] sources;
+    private int current = 0;
+
+    public ConcatFrameSource(FrameSource... sources) {
+        if (sources.length == 0) throw new IllegalArgumentException("Nothing to play");
+        for (FrameSource source : sources) {
+            if (source.getLedCount() != sources[0].getLedCount()
+                    || source.getFps() != sources[0].getFps()) {
+                throw new IllegalArgumentException("Sources do not match | leds: "
+                        + source.getLedCount() + " | fps: " + source.getFps()
+                        + " | expected leds: " + sources[0].getLedCount()
+                        + " | expected fps: " + sources[0].getFps());
+            }
+        }
+        this.sources = sources.clone();
+    }
+
+    @Override
+    public int getLedCount() {
+        return sources[0].getLedCount();
+    }
+
+    @Override
+    public int getFrameCount() {
+        int frameCount = 0;
+        for (FrameSource source : sources) {
+            if (source.getFrameCount() == UNKNOWN_FRAME_COUNT) return UNKNOWN_FRAME_COUNT;
+            frameCount += source.getFrameCount();
+        }
+        return frameCount;
+    }
+
+    @Override
+    public int getFps() {
+        return sources[0].getFps();
+    }
+
+    @Override
+    public boolean nextFrame(int[] dst) throws IOException {
+        for (; current < sources.length; current++) {
+            if (sources[current].nextFrame(dst)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        current = 0;
+        for (FrameSource source : sources) {
+            source.reset();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (FrameSource source : sources) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                if (error == null) error = e;
+            }
+        }
+        if (error != null) throw error;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Animation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Decodes a CSV animation (one frame per line, comma separated values,
+ * optional trailing comma) while it plays. Only the line being parsed is
+ * held, so the animation can be of any length.
+ */
+public final class CsvFrameSource implements FrameSource {
+
+    public interface StreamOpener {
+        InputStream open() throws IOException;
+    }
+
+    private final StreamOpener opener;
+    private final int fps;
+    private final int ledCount;
+
+    private BufferedReader reader;
+    private int[] pending;
+    private int frame = 0;
+
+    /**
+     * Opens the stream and reads its first frame to learn the LED count.
+     *
+     * @param opener opens the CSV, again on every {@link #reset()}
+     */
+    public CsvFrameSource(StreamOpener opener, int fps) throws IOException {
+        if (fps <= 0) throw new IllegalArgumentException("Invalid frame rate " + fps);
+        this.opener = opener;
+        this.fps = fps;
+        reader = open();
+        pending = new int[16];
+        int count = readLine(pending);
+        if (count == -1) {
+            close();
+            throw new IOException("Empty animation");
+        }
+        ledCount = count;
+        pending = Arrays.copyOf(pending, count);
+    }
+
+    @Override
+    public int getLedCount() {
+        return ledCount;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return UNKNOWN_FRAME_COUNT;
+    }
+
+    @Override
+    public int getFps() {
+        return fps;
+    }
+
+    @Override
+    public boolean nextFrame(int[] dst) throws IOException {
+        if (pending != null) {
+            System.arraycopy(pending, 0, dst, 0, ledCount);
+            pending = null;
+            frame++;
+            return true;
+        }
+        if (reader == null) return false;
+        int count = readLine(dst);
+        if (count == -1) {
+            close();
+            return false;
+        }
+        if (count != ledCount) {
+            throw new IOException("Animation line length mismatch | frame: " + frame
+                    + " | expected: " + ledCount + " | found: " + count);
+        }
+        frame++;
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        close();
+        reader = open();
+        pending = null;
+        frame = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader == null) return;
+        reader.close();
+        reader = null;
+    }
+
+    private BufferedReader open() throws IOException {
+        return new BufferedReader(new InputStreamReader(opener.open()));
+    }
+
+    /*
+     * Parses the next non empty line into dst, without going through strings.
+     * Returns how many values the line has, which may be more than dst holds,
+     * or -1 at the end of the stream. The pending frame grows to fit the line.
+     */
+    private int readLine(int[] dst) throws IOException {
+        int count = 0;
+        int value = 0;
+        boolean digits = false;
+        boolean negative = false;
+        while (true) {
+            int c = reader.read();
+            if (c == -1 || c == '\n') {
+                if (digits) {
+                    dst = store(dst, count++, negative ? -value : value);
+                } else if (negative) {
+                    throw invalidValue("-");
+                }
+                if (count > 0) return count;
+                if (c == -1) return -1;
+                // Empty line
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r') continue;
+            if (c == ',') {
+                if (!digits) throw invalidValue("");
+                dst = store(dst, count++, negative ? -value : value);
+                value = 0;
+                digits = false;
+                negative = false;
+            } else if (c >= '0' && c <= '9') {
+                // Values are clamped by the player anyway, just keep them from overflowing
+                value = Math.min(value * 10 + (c - '0'), Short.MAX_VALUE * 10);
+                digits = true;
+            } else if (c == '-' && !digits && !negative) {
+                negative = true;
+            } else {
+                throw invalidValue(String.valueOf((char) c));
+            }
+        }
+    }
+
+    private int[] store(int[] dst, int index, int value) {
+        if (index >= dst.length) {
+            if (dst != pending) return dst;
+            pending = dst = Arrays.copyOf(dst, dst.length * 2);
+        }
+        dst[index] = value;
+        return dst;
+    }
+
+    private IOException invalidValue(String value) {
+        return new IOException("Invalid value in frame " + frame + ": " + value);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Animation;
+
+/**
+ * Fixed rate frame scheduler. Frame {@code n} is due at {@code start + n * period},
+ * independently of how long rendering the previous frames took, so pacing never
+ * drifts. When rendering falls behind, late frames are skipped rather than
+ * played back slower.
+ *
+ * <pre>
+ *   FrameClock clock = new FrameClock(fps);
+ *   for (int i = clock.start(); i < frameCount; i = clock.awaitFrame(i + 1)) {
+ *       render(i);
+ *   }
+ * </pre>
+ *
+ * Waiting for frame {@code frameCount} holds the last frame for its full period,
+ * so an animation of {@code n} frames always lasts {@code n * period}.
+ */
+public final class FrameClock {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final long periodNanos;
+
+    private long startNanos;
+    private long lastNanos;
+    private int frames;
+    private int skippedFrames;
+    private long maxJitterNanos;
+
+    public FrameClock(int fps) {
+        if (fps <= 0) throw new IllegalArgumentException("Invalid frame rate " + fps);
+        periodNanos = NANOS_PER_SECOND / fps;
+    }
+
+    /** Starts (or restarts) the clock, frame 0 is due immediately. */
+    public int start() {
+        startNanos = System.nanoTime();
+        lastNanos = startNanos;
+        frames = 1;
+        skippedFrames = 0;
+        maxJitterNanos = 0;
+        return 0;
+    }
+
+    /**
+     * Sleeps until {@code frame} is due and returns the frame that should be
+     * rendered now: {@code frame} itself, or a later one if the caller is
+     * running behind.
+     */
+    public int awaitFrame(int frame) throws InterruptedException {
+        long deadline = startNanos + frame * periodNanos;
+        long now = System.nanoTime();
+        if (now < deadline) {
+            long remaining = deadline - now;
+            Thread.sleep(remaining / NANOS_PER_MILLI, (int) (remaining % NANOS_PER_MILLI));
+            now = System.nanoTime();
+        }
+        maxJitterNanos = Math.max(maxJitterNanos, now - deadline);
+        lastNanos = now;
+
+        int due = (int) ((now - startNanos) / periodNanos);
+        if (due > frame) {
+            skippedFrames += due - frame;
+            frame = due;
+        }
+        frames++;
+        return frame;
+    }
+
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    public int getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public long getMaxJitterNanos() {
+        return maxJitterNanos;
+    }
+
+    /** Rendered frames per second since {@link #start()}. */
+    public float getAchievedFps() {
+        long elapsed = lastNanos - startNanos;
+        if (elapsed <= 0) return 0;
+        return (float) ((frames - 1) * (double) NANOS_PER_SECOND / elapsed);
+    }
+
+    public long getElapsedMillis() {
+        return (lastNanos - startNanos) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public String toString() {
+        return "elapsed: " + getElapsedMillis() + "ms"
+                + " | fps: " + getAchievedFps()
+                + " | max jitter: " + (maxJitterNanos / 1000) + "us"
+                + " | skipped: " + skippedFrames;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Animation;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Blends layers over a base frame: persistent indicators (like the essential
+ * LED) first, then transient overlays (like volume). Each layer belongs to one
+ * frame layout and only touches the LEDs it sets, the base frame is never modified.
+ *
+ * The composed frame lives in a buffer owned by the compositor, reused for
+ * every frame of the same length.
+ */
+public final class FrameCompositor {
+
+    public enum Blend {
+        /** The layer value wins. */
+        REPLACE,
+        /** The brightest value wins. */
+        MAX,
+        /** Values add up, clamped to the max value. */
+        ADD,
+    }
+
+    public enum Kind {
+        INDICATOR,
+        OVERLAY,
+    }
+
+    public static final class Layer {
+        private final String name;
+        private final Kind kind;
+        private final Blend blend;
+        private final int[] values;
+        private volatile boolean enabled = true;
+
+        private Layer(String name, Kind kind, Blend blend, int frameLength) {
+            this.name = name;
+            this.kind = kind;
+            this.blend = blend;
+            this.values = new int[frameLength];
+            Arrays.fill(values, TRANSPARENT);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getFrameLength() {
+            return values.length;
+        }
+
+        public void set(int led, int value) {
+            values[led] = value;
+        }
+
+        /** Leaves {@code led} to the layers below. */
+        public void clear(int led) {
+            values[led] = TRANSPARENT;
+        }
+
+        public void clear() {
+            Arrays.fill(values, TRANSPARENT);
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    private static final int TRANSPARENT = -1;
+
+    private final int maxValue;
+    private final CopyOnWriteArrayList<Layer> layers = new CopyOnWriteArrayList<>();
+    // Output buffers indexed by frame length
+    private int[][] outputs = new int[0][];
+
+    /** @param maxValue value ADD blending clamps to */
+    public FrameCompositor(int maxValue) {
+        this.maxValue = maxValue;
+    }
+
+    /** Adds a layer for frames of {@code frameLength} LEDs, drawn above the existing layers of its kind. */
+    public Layer addLayer(String name, Kind kind, Blend blend, int frameLength) {
+        Layer layer = new Layer(name, kind, blend, frameLength);
+        synchronized (layers) {
+            int i = 0;
+            while (i < layers.size() && layers.get(i).kind.ordinal() <= kind.ordinal()) i++;
+            layers.add(i, layer);
+        }
+        return layer;
+    }
+
+    public void removeLayer(Layer layer) {
+        layers.remove(layer);
+    }
+
+    /**
+     * Returns {@code base} with every enabled layer of its length blended over it.
+     * The result is only valid until the next call with a frame of the same length.
+     */
+    public synchronized int[] compose(int[] base) {
+        int[] output = getOutput(base.length);
+        System.arraycopy(base, 0, output, 0, base.length);
+        for (Layer layer : layers) {
+            if (!layer.enabled || layer.values.length != base.length) continue;
+            blend(layer, output);
+        }
+        return output;
+    }
+
+    public synchronized int[] compose(float[] base) {
+        int[] output = getOutput(base.length);
+        for (int i = 0; i < base.length; i++) {
+            output[i] = Math.round(base[i]);
+        }
+        for (Layer layer : layers) {
+            if (!layer.enabled || layer.values.length != base.length) continue;
+            blend(layer, output);
+        }
+        return output;
+    }
+
+    private int[] getOutput(int length) {
+        if (length >= outputs.length) {
+            outputs = Arrays.copyOf(outputs, length + 1);
+        }
+        if (outputs[length] == null) {
+            outputs[length] = new int[length];
+        }
+        return outputs[length];
+    }
+
+    private void blend(Layer layer, int[] output) {
+        int[] values = layer.values;
+        for (int i = 0; i < values.length; i++) {
+            int value = values[i];
+            if (value == TRANSPARENT) continue;
+            switch (layer.blend) {
+                case REPLACE:
+                    output[i] = value;
+                    break;
+                case MAX:
+                    output[i] = Math.max(output[i], value);
+                    break;
+                case ADD:
+                    output[i] = Math.min(output[i] + value, maxValue);
+                    break;
+            }
+        }
+    }
+}
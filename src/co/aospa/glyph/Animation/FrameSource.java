@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Animation;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Pull based stream of frames. The player asks for one frame at a time into
+ * its own buffer, so a source only ever holds what it needs to produce the
+ * next frame, however long the animation is.
+ *
+ * <pre>
+ *   int[] frame = new int[source.getLedCount()];
+ *   while (source.nextFrame(frame)) {
+ *       write(frame);
+ *   }
+ * </pre>
+ */
+public interface FrameSource extends Closeable {
+
+    /** Frame count of sources that do not know where they end. */
+    int UNKNOWN_FRAME_COUNT = -1;
+
+    int getLedCount();
+
+    /** Total number of frames, or {@link #UNKNOWN_FRAME_COUNT}. */
+    int getFrameCount();
+
+    int getFps();
+
+    /**
+     * Writes the next frame into {@code dst}, which holds at least
+     * {@link #getLedCount()} values.
+     *
+     * @return false once the source ran out of frames, {@code dst} is left untouched
+     */
+    boolean nextFrame(int[] dst) throws IOException;
+
+    /**
+     * Drops the next {@code count} frames, for players running behind.
+     * {@code scratch} may be used to decode them.
+     *
+     * @return false if the source ran out of frames on the way
+     */
+    default boolean skipFrames(int count, int[] scratch) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (!nextFrame(scratch)) return false;
+        }
+        return true;
+    }
+
+    /** Goes back to the first frame. */
+    void reset() throws IOException;
+
+    @Override
+    default void close() throws IOException { }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Animation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A decoded Glyph animation: {@code frameCount * ledCount} brightness values
+ * packed frame after frame into a single {@code short[]}.
+ *
+ * The binary form is a fixed header followed by the packed values, all big endian:
+ * <pre>
+ *   int   magic ("GLYF")
+ *   short version
+ *   short ledCount
+ *   int   frameCount
+ *   short fps
+ *   short reserved
+ *   long  stamp (identifies the source the frames were compiled from)
+ *   short values[frameCount * ledCount]
+ * </pre>
+ */
+public final class GlyphAnimation {
+
+    public static final int MAGIC = 0x474c5946;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+
+    public static final int DEFAULT_FPS = 60;
+
+    private final int frameCount;
+    private final int ledCount;
+    private final int fps;
+    private final long stamp;
+    private final short[] frames;
+
+    public GlyphAnimation(int frameCount, int ledCount, int fps, long stamp, short[] frames) {
+        if (frameCount < 0 || ledCount <= 0 || fps <= 0
+                || frames.length != frameCount * ledCount) {
+            throw new IllegalArgumentException("Invalid animation | frames: " + frameCount
+                    + " | leds: " + ledCount + " | fps: " + fps + " | values: " + frames.length);
+        }
+        this.frameCount = frameCount;
+        this.ledCount = ledCount;
+        this.fps = fps;
+        this.stamp = stamp;
+        this.frames = frames;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getLedCount() {
+        return ledCount;
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    public long getStamp() {
+        return stamp;
+    }
+
+    public int getValue(int frame, int led) {
+        return frames[frame * ledCount + led];
+    }
+
+    /** Copies a frame into {@code dst}, which must hold at least {@link #getLedCount()} values. */
+    public void getFrame(int frame, int[] dst) {
+        int offset = frame * ledCount;
+        for (int i = 0; i < ledCount; i++) {
+            dst[i] = frames[offset + i];
+        }
+    }
+
+    /** Approximate heap footprint of the decoded frames. */
+    public int getByteSize() {
+        return HEADER_SIZE + frames.length * Short.BYTES;
+    }
+
+    public GlyphAnimation withStamp(long stamp) {
+        return new GlyphAnimation(frameCount, ledCount, fps, stamp, frames);
+    }
+
+    public void write(OutputStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + frames.length * Short.BYTES);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) ledCount);
+        buffer.putInt(frameCount);
+        buffer.putShort((short) fps);
+        buffer.putShort((short) 0);
+        buffer.putLong(stamp);
+        buffer.asShortBuffer().put(frames);
+        out.write(buffer.array());
+        out.flush();
+    }
+
+    public static GlyphAnimation read(InputStream in) throws IOException {
+        return read(in, -1);
+    }
+
+    /**
+     * Reads an animation of {@code length} bytes, -1 if unknown. The header is
+     * checked against it before anything is allocated, a truncated or corrupt
+     * animation throws an IOException.
+     */
+    public static GlyphAnimation read(InputStream in, long length) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] header = new byte[HEADER_SIZE];
+        data.readFully(header);
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        if (buffer.getInt() != MAGIC) throw new IOException("Not a glyph animation");
+        int version = buffer.getShort();
+        if (version != VERSION) throw new IOException("Unsupported glyph animation version " + version);
+        int ledCount = buffer.getShort();
+        int frameCount = buffer.getInt();
+        int fps = buffer.getShort();
+        buffer.getShort();
+        long stamp = buffer.getLong();
+        if (ledCount <= 0 || frameCount < 0 || fps <= 0) {
+            throw new IOException("Corrupt glyph animation header");
+        }
+        long valueCount = (long) frameCount * ledCount;
+        if (valueCount > Integer.MAX_VALUE / Short.BYTES
+                || (length >= 0 && HEADER_SIZE + valueCount * Short.BYTES != length)) {
+            throw new IOException("Glyph animation size mismatch | frames: " + frameCount
+                    + " | leds: " + ledCount + " | bytes: " + length);
+        }
+        byte[] values = new byte[(int) valueCount * Short.BYTES];
+        data.readFully(values);
+        short[] frames = new short[(int) valueCount];
+        ByteBuffer.wrap(values).asShortBuffer().get(frames);
+        return new GlyphAnimation(frameCount, ledCount, fps, stamp, frames);
+    }
+
+    /**
+     * Compiles a CSV animation (one frame per line, comma separated values,
+     * optional trailing comma) into its packed form.
+     */
+    public static GlyphAnimation fromCsv(InputStream in, int fps) throws IOException {
+        try (CsvFrameSource source = new CsvFrameSource(() -> in, fps)) {
+            int ledCount = source.getLedCount();
+            int[] frame = new int[ledCount];
+            short[] frames = new short[Math.max(1024, ledCount)];
+            int frameCount = 0;
+            int values = 0;
+            while (source.nextFrame(frame)) {
+                if (values + ledCount > frames.length) {
+                    frames = Arrays.copyOf(frames, Math.max(frames.length * 2, values + ledCount));
+                }
+                for (int value : frame) {
+                    frames[values++] = (short) Math.max(0, Math.min(value, Short.MAX_VALUE));
+                }
+                frameCount++;
+            }
+            return new GlyphAnimation(frameCount, ledCount, fps, 0, Arrays.copyOf(frames, values));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Animation;
+
+import java.io.IOException;
+
+/** Plays another source a number of times, or until stopped. */
+public final class LoopFrameSource implements FrameSource {
+
+    public static final int LOOP_FOREVER = -1;
+
+    private final FrameSource source;
+    private final int loops;
+    private int loop = 0;
+
+    /** @param loops number of times to play {@code source}, or {@link #LOOP_FOREVER} */
+    public LoopFrameSource(FrameSource source, int loops) {
+        if (loops < LOOP_FOREVER) throw new IllegalArgumentException("Invalid loop count " + loops);
+        this.source = source;
+        this.loops = loops;
+    }
+
+    @Override
+    public int getLedCount() {
+        return source.getLedCount();
+    }
+
+    @Override
+    public int getFrameCount() {
+        int frameCount = source.getFrameCount();
+        if (loops == LOOP_FOREVER || frameCount == UNKNOWN_FRAME_COUNT) return UNKNOWN_FRAME_COUNT;
+        return frameCount * loops;
+    }
+
+    @Override
+    public int getFps() {
+        return source.getFps();
+    }
+
+    @Override
+    public boolean nextFrame(int[] dst) throws IOException {
+        if (loops != LOOP_FOREVER && loop >= loops) return false;
+        if (source.nextFrame(dst)) return true;
+        if (loops != LOOP_FOREVER && ++loop >= loops) return false;
+        source.reset();
+        // An empty source ends the loop instead of spinning on it
+        return source.nextFrame(dst);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        loop = 0;
+        source.reset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
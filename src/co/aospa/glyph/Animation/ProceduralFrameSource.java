@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Animation;
+
+/**
+ * Computes frames on the fly from their index, for animations that are
+ * easier described than stored (pulses, timers, progress bars).
+ */
+public final class ProceduralFrameSource implements FrameSource {
+
+    public interface Generator {
+        /** Renders frame {@code frame} into {@code dst}, every value has to be set. */
+        void render(int frame, int[] dst);
+    }
+
+    private final int ledCount;
+    private final int fps;
+    private final int frameCount;
+    private final Generator generator;
+    private int position = 0;
+
+    /** @param frameCount number of frames, {@link #UNKNOWN_FRAME_COUNT} to never end */
+    public ProceduralFrameSource(int ledCount, int fps, int frameCount, Generator generator) {
+        if (ledCount <= 0 || fps <= 0 || frameCount < UNKNOWN_FRAME_COUNT) {
+            throw new IllegalArgumentException("Invalid procedural animation | leds: " + ledCount
+                    + " | fps: " + fps + " | frames: " + frameCount);
+        }
+        this.ledCount = ledCount;
+        this.fps = fps;
+        this.frameCount = frameCount;
+        this.generator = generator;
+    }
+
+    @Override
+    public int getLedCount() {
+        return ledCount;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public int getFps() {
+        return fps;
+    }
+
+    @Override
+    public boolean nextFrame(int[] dst) {
+        if (frameCount != UNKNOWN_FRAME_COUNT && position >= frameCount) return false;
+        generator.render(position++, dst);
+        return true;
+    }
+
+    @Override
+    public boolean skipFrames(int count, int[] scratch) {
+        if (frameCount != UNKNOWN_FRAME_COUNT && (long) position + count > frameCount) {
+            position = frameCount;
+            return false;
+        }
+        position += count;
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        position = 0;
+    }
+}
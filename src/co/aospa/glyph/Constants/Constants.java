@@ -27,12 +27,27 @@ public final class Constants {
 
     public static Context CONTEXT;
 
-    private static String device = null;
+    // Animations are authored with 12 bit values, whatever the LED driver range is
+    public static final int PATTERN_VALUE_MAX = 4095;
+
+    // The brightness and the table mapping a pattern value to the value written
+    // at that brightness, published together so readers never mix them up
+    private static final class BrightnessState {
+        final int brightness;
+        final int[] table;
+
+        BrightnessState(int brightness, int[] table) {
+            this.brightness = brightness;
+            this.table = table;
+        }
+    }
 
-    private static int brightness = -1;
-    private static int brightnessMax = -1;
-    private static int[] brightnessLevels = null;
-    private static int[] supportedAnimationPatternLengths = null;
+    private static volatile BrightnessState brightnessState = null;
+    // One table per brightness level, built once
+    private static volatile int[][] brightnessTables = null;
+    // Pattern values bent by the device's perceptual curve, still in pattern units
+    private static volatile float[] gammaCurve = null;
+    private static final Object tableLock = new Object();
 
     public static final String GLYPH_ENABLE = "glyph_enable";
     public static final String GLYPH_FLIP_ENABLE = "glyph_settings_flip_toggle";
@@ -68,46 +83,148 @@ public final class Constants {
     };
 
     public static String getDevice() {
-        if (device == null)
-            device = ResourceUtils.getString("glyph_settings_device");
-
-        return device;
+        return DeviceProfile.get().getDevice();
     }
 
     public static boolean setBrightness(int b) {
-        if (b > ResourceUtils.getInteger("glyph_settings_brightness_max"))
+        if (b < 0 || b > getMaxBrightness())
+            return false;
+
+        DeviceProfile profile = DeviceProfile.get();
+        int[][] tables = getBrightnessTables();
+        for (int i = 0; i < tables.length; i++) {
+            if (profile.getBrightnessLevel(i) == b) {
+                brightnessState = new BrightnessState(b, tables[i]);
+                return true;
+            }
+        }
+        brightnessState = new BrightnessState(b, buildBrightnessTable(b));
+        return true;
+    }
+
+    /** Switches to the table of the given brightness level, counted from 1 like the setting. */
+    public static boolean setBrightnessLevel(int level) {
+        int[][] tables = getBrightnessTables();
+        if (level < 1 || level > tables.length)
             return false;
 
-        brightness = b;
+        brightnessState = new BrightnessState(
+                DeviceProfile.get().getBrightnessLevel(level - 1), tables[level - 1]);
         return true;
     }
 
     public static int getBrightness() {
-        if (brightness == -1)
-            brightness = ResourceUtils.getInteger("glyph_settings_brightness_max");
+        return getBrightnessState().brightness;
+    }
 
-        return brightness;
+    /**
+     * Table mapping a pattern value, from 0 to {@link #PATTERN_VALUE_MAX}, to the
+     * value to write at the current brightness. Read it once per frame, it is
+     * replaced as a whole when the brightness changes.
+     */
+    public static int[] getBrightnessTable() {
+        return getBrightnessState().table;
     }
 
-    public static int getMaxBrightness() {
-        if (brightnessMax == -1)
-            brightnessMax = ResourceUtils.getInteger("glyph_settings_brightness_max");
+    private static BrightnessState getBrightnessState() {
+        BrightnessState state = brightnessState;
+        if (state == null) {
+            synchronized (tableLock) {
+                if (brightnessState == null) {
+                    int max = getMaxBrightness();
+                    brightnessState = new BrightnessState(max, buildBrightnessTable(max));
+                }
+                state = brightnessState;
+            }
+        }
+        return state;
+    }
 
-        return brightnessMax;
+    public static int scaleBrightness(int[] table, int value) {
+        return table[Math.max(0, Math.min(value, table.length - 1))];
     }
 
-    public static int[] getBrightnessLevels() {
-        if (brightnessLevels == null)
-            brightnessLevels = ResourceUtils.getIntArray("glyph_settings_brightness_levels");
+    private static int[][] getBrightnessTables() {
+        int[][] tables = brightnessTables;
+        if (tables == null) {
+            synchronized (tableLock) {
+                if (brightnessTables == null) {
+                    DeviceProfile profile = DeviceProfile.get();
+                    int[][] levelTables = new int[profile.getBrightnessLevelCount()][];
+                    for (int i = 0; i < levelTables.length; i++) {
+                        levelTables[i] = buildBrightnessTable(profile.getBrightnessLevel(i));
+                    }
+                    brightnessTables = levelTables;
+                }
+                tables = brightnessTables;
+            }
+        }
+        return tables;
+    }
 
-        return brightnessLevels;
+    private static int[] buildBrightnessTable(int brightness) {
+        float maxBrightness = (float) getMaxBrightness();
+        float[] curve = getGammaCurve();
+        int[] table = new int[curve.length];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = Math.round(curve[i] / maxBrightness * brightness);
+        }
+        return table;
     }
 
-    public static int[] getSupportedAnimationPatternLengths() {
-        if (supportedAnimationPatternLengths == null)
-            supportedAnimationPatternLengths = ResourceUtils.getIntArray("glyph_settings_animations_supported_pattern_lengths");
+    /**
+     * Pattern value as it should be driven for the LEDs to look like it, following
+     * glyph_settings_brightness_gamma. Already folded into the brightness tables.
+     */
+    public static float applyGamma(int value) {
+        float[] curve = getGammaCurve();
+        return curve[Math.max(0, Math.min(value, curve.length - 1))];
+    }
 
-        return supportedAnimationPatternLengths;
+    /** Pattern value that {@link #applyGamma} turns back into {@code value}, for fixed drive levels. */
+    public static int removeGamma(float value) {
+        if (value <= 0 || value >= PATTERN_VALUE_MAX)
+            return Math.round(value);
+
+        double x = value / (double) PATTERN_VALUE_MAX;
+        return (int) Math.round(PATTERN_VALUE_MAX * Math.pow(x, 1 / getGamma()));
+    }
+
+    private static double getGamma() {
+        // Stored in hundredths, 100 keeps the output linear
+        return DeviceProfile.get().getBrightnessGamma() / 100.0;
+    }
+
+    private static float[] getGammaCurve() {
+        float[] curve = gammaCurve;
+        if (curve == null) {
+            synchronized (tableLock) {
+                if (gammaCurve == null) {
+                    double gamma = getGamma();
+                    float[] values = new float[Math.max(PATTERN_VALUE_MAX, getMaxBrightness()) + 1];
+                    for (int i = 0; i < values.length; i++) {
+                        // Values past the 12 bit range only occur when the driver range is wider, keep them linear
+                        double x = Math.min(i / (double) PATTERN_VALUE_MAX, 1.0);
+                        values[i] = x > 0 ? (float) (i * Math.pow(x, gamma - 1)) : 0;
+                    }
+                    gammaCurve = values;
+                }
+                curve = gammaCurve;
+            }
+        }
+        return curve;
+    }
+
+    public static int getMaxBrightness() {
+        return DeviceProfile.get().getMaxBrightness();
+    }
+
+    public static int[] getBrightnessLevels() {
+        return DeviceProfile.get().getBrightnessLevels();
+    }
+
+    public static int[] getSupportedAnimationPatternLengths() {
+        return DeviceProfile.get().getSupportedPatternLengths();
     }
 
 }
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Constants;
+
+import com.android.internal.util.ArrayUtils;
+
+import java.util.Arrays;
+
+import co.aospa.glyph.Utils.ResourceUtils;
+
+/**
+ * Everything the device overlay says about the LEDs, read once. Nothing here
+ * changes at runtime, so components keep the profile instead of looking the
+ * resources up again.
+ */
+public final class DeviceProfile {
+
+    private static volatile DeviceProfile profile = null;
+
+    private final String device;
+
+    private final int maxBrightness;
+    private final int[] brightnessLevels;
+    private final int brightnessGamma;
+
+    private final int[] supportedPatternLengths;
+    private final int[] essentialFrameLeds;
+    private final int essentialLed;
+
+    private final int batteryLevels;
+    private final boolean batteryDot;
+    private final int[] batteryFrameLeds;
+    private final int volumeLevels;
+    private final int[] volumeFrameLeds;
+
+    private final boolean musicEnvelope;
+    private final int musicAttackMillis;
+    private final int musicDecayMillis;
+    private final int[] musicFrameBands;
+    private final boolean musicSpectrum;
+    private final int[] musicSpectrumLeds;
+
+    private final String framePath;
+    private final String singlePath;
+    private final String allPath;
+    private final String modePath;
+    private final String powershareActivePath;
+    private final String powershareEnabledPath;
+
+    private final String[] animationSlugs;
+    private final int[] previewLeds;
+    private final int overlayLength;
+    private final String defaultCallAnimation;
+    private final String defaultNotifsAnimation;
+
+    /** The profile of this device, loaded from the resources on first use. */
+    public static DeviceProfile get() {
+        DeviceProfile current = profile;
+        if (current == null) {
+            synchronized (DeviceProfile.class) {
+                if (profile == null) profile = new DeviceProfile();
+                current = profile;
+            }
+        }
+        return current;
+    }
+
+    private DeviceProfile() {
+        device = ResourceUtils.getString("glyph_settings_device");
+
+        maxBrightness = ResourceUtils.getInteger("glyph_settings_brightness_max");
+        brightnessLevels = ResourceUtils.getIntArray("glyph_settings_brightness_levels");
+        brightnessGamma = ResourceUtils.getInteger("glyph_settings_brightness_gamma");
+
+        supportedPatternLengths = ResourceUtils.getIntArray("glyph_settings_animations_supported_pattern_lengths");
+        essentialFrameLeds = ResourceUtils.getIntArray("glyph_settings_notifs_essential_frame_leds");
+        essentialLed = ResourceUtils.getInteger("glyph_settings_notifs_essential_led");
+
+        batteryLevels = ResourceUtils.getInteger("glyph_settings_battery_levels_num");
+        batteryDot = ResourceUtils.getBoolean("glyph_settings_battery_dot");
+        batteryFrameLeds = ResourceUtils.getIntArray("glyph_settings_battery_frame_leds");
+        volumeLevels = ResourceUtils.getInteger("glyph_settings_volume_levels_num");
+        volumeFrameLeds = ResourceUtils.getIntArray("glyph_settings_volume_frame_leds");
+
+        musicEnvelope = ResourceUtils.getBoolean("glyph_settings_music_envelope");
+        musicAttackMillis = ResourceUtils.getInteger("glyph_settings_music_attack");
+        musicDecayMillis = ResourceUtils.getInteger("glyph_settings_music_decay");
+        musicFrameBands = ResourceUtils.getIntArray("glyph_settings_music_frame_bands");
+        musicSpectrum = ResourceUtils.getBoolean("glyph_settings_music_spectrum");
+        musicSpectrumLeds = ResourceUtils.getIntArray("glyph_settings_music_spectrum_leds");
+
+        framePath = ResourceUtils.getString("glyph_settings_paths_frame_absolute");
+        singlePath = ResourceUtils.getString("glyph_settings_paths_single_absolute");
+        allPath = ResourceUtils.getString("glyph_settings_paths_all_absolute");
+        modePath = ResourceUtils.getString("glyph_settings_paths_mode_absolute");
+        powershareActivePath = ResourceUtils.getString("glyph_settings_paths_powershare_active_absolute");
+        powershareEnabledPath = ResourceUtils.getString("glyph_settings_paths_powershare_enabled_absolute");
+
+        animationSlugs = ResourceUtils.getStringArray("glyph_settings_animations_slugs");
+        previewLeds = ResourceUtils.getIntArray("glyph_settings_animations_preview_leds");
+        overlayLength = ResourceUtils.getInteger("glyph_settings_animations_overlay_length");
+        defaultCallAnimation = ResourceUtils.getString("glyph_settings_call_animations_default");
+        defaultNotifsAnimation = ResourceUtils.getString("glyph_settings_notifs_animations_default");
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    public int getMaxBrightness() {
+        return maxBrightness;
+    }
+
+    public int getBrightnessLevelCount() {
+        return brightnessLevels.length;
+    }
+
+    /** Brightness of a level, counted from 0. */
+    public int getBrightnessLevel(int index) {
+        return brightnessLevels[index];
+    }
+
+    public int[] getBrightnessLevels() {
+        return brightnessLevels.clone();
+    }
+
+    /** Perceptual curve of the LEDs, in hundredths. */
+    public int getBrightnessGamma() {
+        return brightnessGamma;
+    }
+
+    public boolean supportsPatternLength(int length) {
+        return ArrayUtils.contains(supportedPatternLengths, length);
+    }
+
+    public int[] getSupportedPatternLengths() {
+        return supportedPatternLengths.clone();
+    }
+
+    /** Position of the essential LED in frames of the given length, -1 if it has none. */
+    public int getEssentialFrameLed(int length) {
+        for (int i = 0; i < supportedPatternLengths.length && i < essentialFrameLeds.length; i++) {
+            if (supportedPatternLengths[i] == length) return essentialFrameLeds[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Single LED index of each position in frames of the given length, -1 for the
+     * positions that have no single LED of their own. Only the essential LED is
+     * known to map to one, every other position may drive several LEDs.
+     */
+    public int[] getSingleLeds(int length) {
+        int[] leds = new int[length];
+        Arrays.fill(leds, -1);
+        int position = getEssentialFrameLed(length);
+        if (position >= 0 && position < length) leds[position] = essentialLed;
+        return leds;
+    }
+
+    /** Single LED index of the essential LED. */
+    public int getEssentialLed() {
+        return essentialLed;
+    }
+
+    public int getBatteryLevels() {
+        return batteryLevels;
+    }
+
+    public boolean hasBatteryDot() {
+        return batteryDot;
+    }
+
+    /** Position of each battery level in overlay frames, null when charging does not draw as an overlay. */
+    public int[] getBatteryFrameLeds() {
+        return getOverlayLeds(batteryFrameLeds, batteryLevels);
+    }
+
+    public int getVolumeLevels() {
+        return volumeLevels;
+    }
+
+    /** Position of each volume level in overlay frames, null when volume does not draw as an overlay. */
+    public int[] getVolumeFrameLeds() {
+        return getOverlayLeds(volumeFrameLeds, volumeLevels);
+    }
+
+    /** Pattern length volume and charging draw in over the running animation, 0 if they do not. */
+    public int getOverlayLength() {
+        return supportsPatternLength(overlayLength) ? overlayLength : 0;
+    }
+
+    private int[] getOverlayLeds(int[] leds, int levels) {
+        int length = getOverlayLength();
+        if (length == 0 || leds.length != levels) return null;
+        for (int led : leds) {
+            if (led < 0 || led >= length) return null;
+        }
+        return leds.clone();
+    }
+
+    /** Whether the music visualizer follows band energy rather than flashing on beats. */
+    public boolean hasMusicEnvelope() {
+        return musicEnvelope && musicFrameBands.length > 0;
+    }
+
+    public int getMusicAttackMillis() {
+        return musicAttackMillis;
+    }
+
+    public int getMusicDecayMillis() {
+        return musicDecayMillis;
+    }
+
+    /** Visualizer band of each LED in the music frame, empty when unknown. */
+    public int[] getMusicFrameBands() {
+        return musicFrameBands.clone();
+    }
+
+    /** Whether the music visualizer shows a spectrum, one LED per frequency range. */
+    public boolean hasMusicSpectrum() {
+        return musicSpectrum && musicSpectrumLeds.length > 0
+                && supportsPatternLength(musicFrameBands.length);
+    }
+
+    /** Position in the music frame of each spectrum LED, from the lows to the highs. */
+    public int[] getMusicSpectrumLeds() {
+        return musicSpectrumLeds.clone();
+    }
+
+    public String getFramePath() {
+        return framePath;
+    }
+
+    public String getSinglePath() {
+        return singlePath;
+    }
+
+    public String getAllPath() {
+        return allPath;
+    }
+
+    /** Blank if the driver has no mode node. */
+    public String getModePath() {
+        return modePath;
+    }
+
+    public String getPowershareActivePath() {
+        return powershareActivePath;
+    }
+
+    public String getPowershareEnabledPath() {
+        return powershareEnabledPath;
+    }
+
+    public String[] getAnimationSlugs() {
+        return animationSlugs.clone();
+    }
+
+    /** Frame position previewed by each slug in frames of the given length, null if it can't be previewed. */
+    public int[] getPreviewLeds(int length) {
+        int slugs = animationSlugs.length;
+        for (int i = 0; i < supportedPatternLengths.length; i++) {
+            if (supportedPatternLengths[i] != length) continue;
+            if (slugs == 0 || previewLeds.length < (i + 1) * slugs) return null;
+            return Arrays.copyOfRange(previewLeds, i * slugs, (i + 1) * slugs);
+        }
+        return null;
+    }
+
+    public String getDefaultCallAnimation() {
+        return defaultCallAnimation;
+    }
+
+    public String getDefaultNotifsAnimation() {
+        return defaultNotifsAnimation;
+    }
+}
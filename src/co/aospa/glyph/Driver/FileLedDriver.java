@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Driver;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes LED output to plain files laid out like an LED class device, for
+ * example a temporary directory standing in for /sys/class/leds/aw210xx_led.
+ * Each file holds the last value written, like reading back a sysfs node.
+ */
+public class FileLedDriver extends SysfsLedDriver {
+
+    public static final String FRAME_NODE = "frame_leds_effect";
+    public static final String SINGLE_NODE = "single_led_br";
+    public static final String ALL_NODE = "all_white_leds_br";
+
+    private final File directory;
+
+    /** Uses the aw210xx node names, creating the files if needed. */
+    public FileLedDriver(File directory) throws IOException {
+        this(directory, FRAME_NODE, SINGLE_NODE, ALL_NODE, null);
+    }
+
+    /** @param modeNode name of the mode file, null if there is none */
+    public FileLedDriver(File directory, String frameNode, String singleNode, String allNode,
+            String modeNode) throws IOException {
+        super(create(directory, frameNode), create(directory, singleNode),
+                create(directory, allNode), modeNode != null ? create(directory, modeNode) : null,
+                true);
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private static String create(File directory, String name) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File file = new File(directory, name);
+        if (!file.exists() && !file.createNewFile()) {
+            throw new IOException("Could not create " + file);
+        }
+        return file.getPath();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Driver;
+
+/**
+ * Where LED output ends up. Values are already scaled to the driver range.
+ *
+ * Implementations do not need to be thread safe, callers serialize writes.
+ */
+public interface GlyphLedDriver {
+
+    /** Writes a whole frame, one value per LED of the frame layout. */
+    boolean writeFrame(int[] values);
+
+    boolean writeSingle(int led, int value);
+
+    /** Lights every LED with the same value. */
+    boolean writeAll(int value);
+
+    /** Releases whatever the driver keeps open, it is reopened on the next write. */
+    void close();
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Driver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records every write with its time, optionally passing it on to another
+ * driver. Meant to check or benchmark what the engine outputs.
+ */
+public class RecordingLedDriver implements GlyphLedDriver {
+
+    public enum Type {
+        FRAME,
+        SINGLE,
+        ALL,
+    }
+
+    public static final class Record {
+        /** {@link System#nanoTime()} of the write. */
+        public final long timeNanos;
+        public final Type type;
+        /** LED of a single write, -1 otherwise. */
+        public final int led;
+        /** Frame values, or the single value of a single or all write. */
+        public final int[] values;
+
+        private Record(long timeNanos, Type type, int led, int[] values) {
+            this.timeNanos = timeNanos;
+            this.type = type;
+            this.led = led;
+            this.values = values;
+        }
+    }
+
+    private final GlyphLedDriver delegate;
+    private final List<Record> records = new ArrayList<>();
+
+    public RecordingLedDriver() {
+        this(null);
+    }
+
+    /** @param delegate driver to pass the writes on to, null to only record them */
+    public RecordingLedDriver(GlyphLedDriver delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean writeFrame(int[] values) {
+        record(Type.FRAME, -1, values.clone());
+        return delegate == null || delegate.writeFrame(values);
+    }
+
+    @Override
+    public boolean writeSingle(int led, int value) {
+        record(Type.SINGLE, led, new int[] { value });
+        return delegate == null || delegate.writeSingle(led, value);
+    }
+
+    @Override
+    public boolean writeAll(int value) {
+        record(Type.ALL, -1, new int[] { value });
+        return delegate == null || delegate.writeAll(value);
+    }
+
+    @Override
+    public void close() {
+        if (delegate != null) delegate.close();
+    }
+
+    /** Copy of the records so far, oldest first. */
+    public List<Record> getRecords() {
+        synchronized (records) {
+            return new ArrayList<>(records);
+        }
+    }
+
+    public void clear() {
+        synchronized (records) {
+            records.clear();
+        }
+    }
+
+    private void record(Type type, int led, int[] values) {
+        synchronized (records) {
+            records.add(new Record(System.nanoTime(), type, led, values));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Driver;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import co.aospa.glyph.Constants.DeviceProfile;
+
+/**
+ * Drives the LEDs through the kernel driver's sysfs nodes.
+ *
+ * The nodes stay open and values are encoded as ASCII digits into a reused
+ * buffer, a frame costs a single write and no allocation.
+ */
+public class SysfsLedDriver implements GlyphLedDriver {
+
+    private static final String TAG = "GlyphSysfsLedDriver";
+    private static final boolean DEBUG = true;
+
+    private static final int BUFFER_SIZE = 512;
+
+    // The driver only needs the mode once, until it may have dropped it:
+    // after a while without writes, after the torch and across a suspend
+    private static final long MODE_IDLE_MILLIS = 10000;
+    // The two clocks drift apart by a millisecond now and then without any suspend
+    private static final long MODE_SLEEP_MILLIS = 1000;
+
+    private final LedNode allNode;
+    private final LedNode frameNode;
+    private final LedNode modeNode;
+    private final LedNode singleNode;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer modeBuffer = ByteBuffer.allocateDirect(1).put(0, (byte) '1');
+
+    private boolean modeActive = false;
+    private long modeLastWrite = 0;
+    private long modeSleepMillis = 0;
+
+    private static final class LedNode {
+        private final String path;
+        private final boolean truncate;
+        private FileChannel channel = null;
+
+        LedNode(String path, boolean truncate) {
+            this.path = path;
+            this.truncate = truncate;
+        }
+
+        // Positional write at the start of the node, reopening it once if the descriptor went bad
+        boolean write(ByteBuffer buffer) {
+            int position = buffer.position();
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    if (channel == null) {
+                        channel = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE);
+                    }
+                    int length = channel.write(buffer, 0);
+                    if (truncate) channel.truncate(length);
+                    return true;
+                } catch (NoSuchFileException e) {
+                    Log.w(TAG, "No such file " + path + " for writing", e);
+                    return false;
+                } catch (IOException e) {
+                    if (attempt > 0) Log.e(TAG, "Could not write to file " + path, e);
+                    close();
+                    buffer.position(position);
+                }
+            }
+            return false;
+        }
+
+        void close() {
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignored, not much we can do anyway
+            }
+            channel = null;
+        }
+    }
+
+    /** Uses the paths of the device profile. */
+    public static SysfsLedDriver fromProfile(DeviceProfile profile) {
+        return new SysfsLedDriver(profile.getFramePath(), profile.getSinglePath(),
+                profile.getAllPath(), profile.getModePath());
+    }
+
+    /** @param modePath node to put the driver in frame mode, blank if there is none */
+    public SysfsLedDriver(String framePath, String singlePath, String allPath, String modePath) {
+        this(framePath, singlePath, allPath, modePath, false);
+    }
+
+    // Regular files keep their old tail when a shorter value is written, sysfs nodes do not
+    SysfsLedDriver(String framePath, String singlePath, String allPath, String modePath,
+            boolean truncate) {
+        frameNode = new LedNode(framePath, truncate);
+        singleNode = new LedNode(singlePath, truncate);
+        allNode = new LedNode(allPath, truncate);
+        modeNode = modePath == null || modePath.isBlank() ? null : new LedNode(modePath, truncate);
+    }
+
+    @Override
+    public boolean writeFrame(int[] values) {
+        buffer.clear();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) buffer.put((byte) ' ');
+            putDigits(values[i]);
+        }
+        return write(frameNode);
+    }
+
+    @Override
+    public boolean writeSingle(int led, int value) {
+        buffer.clear();
+        putDigits(led);
+        buffer.put((byte) ' ');
+        putDigits(value);
+        return write(singleNode);
+    }
+
+    @Override
+    public boolean writeAll(int value) {
+        buffer.clear();
+        putDigits(value);
+        boolean written = write(allNode);
+        // Lighting every LED may take the driver out of the frame mode
+        modeActive = false;
+        return written;
+    }
+
+    @Override
+    public void close() {
+        allNode.close();
+        frameNode.close();
+        singleNode.close();
+        if (modeNode != null) modeNode.close();
+        modeActive = false;
+    }
+
+    // Writes what was encoded in a single write, as sysfs nodes expect
+    private boolean write(LedNode node) {
+        updateMode();
+        buffer.flip();
+        return node.write(buffer);
+    }
+
+    private void updateMode() {
+        if (modeNode == null) return;
+
+        long now = SystemClock.uptimeMillis();
+        // Uptime stops while suspended, elapsed realtime does not
+        long sleepMillis = SystemClock.elapsedRealtime() - now;
+        if (modeActive && (now - modeLastWrite > MODE_IDLE_MILLIS
+                || sleepMillis - modeSleepMillis > MODE_SLEEP_MILLIS)) {
+            if (DEBUG) Log.d(TAG, "LED mode may have been reset, writing it again");
+            modeActive = false;
+        }
+        if (!modeActive) {
+            modeActive = modeNode.write(modeBuffer.rewind());
+        }
+        modeLastWrite = now;
+        modeSleepMillis = sleepMillis;
+    }
+
+    private void putDigits(int value) {
+        if (value < 0) value = 0;
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        // Digits came out least significant first
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte digit = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, digit);
+        }
+    }
+}
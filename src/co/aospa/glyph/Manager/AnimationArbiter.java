@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Manager;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Decides which animation owns the LEDs. Only one animation plays at a time;
+ * a request either starts right away, preempts the current animation, or is
+ * queued, coalesced or dropped according to its {@link Priority}.
+ *
+ * Queued requests do not hold a thread, they are handed to the executor once
+ * they win the LEDs.
+ */
+public final class AnimationArbiter {
+
+    private static final String TAG = "GlyphAnimationArbiter";
+    private static final boolean DEBUG = true;
+
+    // Queued requests of one class beyond this are dropped, the queue never grows unbounded
+    private static final int MAX_PENDING_PER_PRIORITY = 4;
+
+    public enum Policy {
+        /** Dropped if it can not play right away. */
+        DROP,
+        /** Waits for its turn behind the requests already queued. */
+        QUEUE,
+        /** Waits for its turn, replacing a request of the same class already waiting. */
+        COALESCE,
+        /** Like COALESCE, and also preempts a running animation of the same class. */
+        REPLACE,
+    }
+
+    public enum Priority {
+        //          rank  preempts  resumes  policy           max queued ms
+        TORCH       (8,   true,     false,   Policy.DROP,     0),
+        CALL        (7,   true,     true,    Policy.COALESCE, 0),
+        ESSENTIAL   (6,   false,    false,   Policy.COALESCE, 0),
+        POWERSHARE  (5,   true,     false,   Policy.QUEUE,    2500),
+        FLIP        (5,   true,     false,   Policy.DROP,     0),
+        CHARGING    (5,   false,    false,   Policy.COALESCE, 2500),
+        NOTIFICATION(4,   true,     false,   Policy.COALESCE, 2500),
+        VOLUME      (3,   true,     false,   Policy.REPLACE,  2500),
+        MUSIC       (1,   false,    false,   Policy.DROP,     0);
+
+        final int rank;
+        final boolean preempts;
+        final boolean resumes;
+        final Policy policy;
+        final long maxQueuedMillis;
+
+        Priority(int rank, boolean preempts, boolean resumes, Policy policy, long maxQueuedMillis) {
+            this.rank = rank;
+            this.preempts = preempts;
+            this.resumes = resumes;
+            this.policy = policy;
+            this.maxQueuedMillis = maxQueuedMillis;
+        }
+    }
+
+    public static final class Ticket {
+        private final Priority priority;
+        private final String name;
+        private final Consumer<Ticket> task;
+        private final long requestTime = System.currentTimeMillis();
+        private volatile Priority preemptedBy = null;
+
+        private Ticket(Priority priority, String name, Consumer<Ticket> task) {
+            this.priority = priority;
+            this.name = name;
+            this.task = task;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** True once a more important animation wants the LEDs, the task should stop ASAP. */
+        public boolean isPreempted() {
+            return preemptedBy != null;
+        }
+
+        public Priority getPreemptedBy() {
+            return preemptedBy;
+        }
+    }
+
+    private final Object lock = new Object();
+    private final Executor executor;
+
+    private final ArrayList<Ticket> pending = new ArrayList<>();
+    private Ticket current = null;
+    private boolean torchActive = false;
+    // Run once the preempted animation gave the LEDs up to the torch
+    private Runnable torchClaim = null;
+
+    private long droppedCount = 0;
+    private long preemptedCount = 0;
+
+    AnimationArbiter(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Requests the LEDs for {@code task}, which runs on the executor once granted.
+     * Returns false if the request was dropped.
+     */
+    public boolean request(Priority priority, String name, Consumer<Ticket> task) {
+        Ticket ticket = new Ticket(priority, name, task);
+        synchronized (lock) {
+            if (!torchActive && current == null && !hasPendingAbove(priority)) {
+                start(ticket);
+                return true;
+            }
+
+            if (!torchActive && current != null && canPreempt(priority, current)) {
+                if (DEBUG) Log.d(TAG, "Preempting animation | name: " + current.name + " | by: " + name);
+                preempt(current, priority);
+                removePending(priority);
+                // Takes its turn by rank, requests already queued above it still go first
+                enqueue(ticket);
+                return true;
+            }
+
+            switch (priority.policy) {
+                case DROP:
+                    if (DEBUG) Log.d(TAG, "LEDs are busy, dropping animation | name: " + name);
+                    droppedCount++;
+                    return false;
+                case COALESCE:
+                case REPLACE:
+                    if (removePending(priority)) {
+                        if (DEBUG) Log.d(TAG, "Coalescing queued animation | name: " + name);
+                        droppedCount++;
+                    }
+                    // fall through
+                case QUEUE:
+                default:
+                    if (countPending(priority) >= MAX_PENDING_PER_PRIORITY) {
+                        if (DEBUG) Log.d(TAG, "Too many queued animations, dropping | name: " + name);
+                        droppedCount++;
+                        return false;
+                    }
+                    if (DEBUG) Log.d(TAG, "LEDs are busy, queueing animation | name: " + name);
+                    enqueue(ticket);
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Gives the LEDs to the torch, preempting the current animation. Does not
+     * wait: {@code onClaimed} runs right away if the LEDs are free, otherwise on
+     * the animation thread once the preempted animation stopped writing frames.
+     */
+    public void claimTorch(Runnable onClaimed) {
+        synchronized (lock) {
+            torchActive = true;
+            StatusManager.setAllLedsActive(true);
+            if (current != null) {
+                preempt(current, Priority.TORCH);
+                torchClaim = onClaimed;
+                return;
+            }
+            torchClaim = null;
+        }
+        onClaimed.run();
+    }
+
+    /** Takes the LEDs back from the torch, a claim that did not run yet never will. */
+    public void releaseTorch() {
+        synchronized (lock) {
+            torchActive = false;
+            torchClaim = null;
+            StatusManager.setAllLedsActive(false);
+            if (current == null) dispatchNext();
+        }
+    }
+
+    /** Drops the requests of {@code priority} still waiting for the LEDs. */
+    public void cancel(Priority priority) {
+        synchronized (lock) {
+            if (removePending(priority) && DEBUG) {
+                Log.d(TAG, "Cancelled queued animation | priority: " + priority);
+            }
+        }
+    }
+
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    public long getPreemptedCount() {
+        synchronized (lock) {
+            return preemptedCount;
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    private boolean canPreempt(Priority priority, Ticket ticket) {
+        if (ticket.isPreempted()) return false;
+        if (priority.policy == Policy.REPLACE && ticket.priority == priority) return true;
+        return priority.preempts && priority.rank > ticket.priority.rank;
+    }
+
+    private void preempt(Ticket ticket, Priority by) {
+        ticket.preemptedBy = by;
+        preemptedCount++;
+        // Wake up the animation if it is holding a frame
+        StatusManager.notifyChanged();
+    }
+
+    private boolean hasPendingAbove(Priority priority) {
+        for (Ticket ticket : pending) {
+            if (ticket.priority.rank >= priority.rank) return true;
+        }
+        return false;
+    }
+
+    private int countPending(Priority priority) {
+        int count = 0;
+        for (Ticket ticket : pending) {
+            if (ticket.priority == priority) count++;
+        }
+        return count;
+    }
+
+    private boolean removePending(Priority priority) {
+        return pending.removeIf(ticket -> ticket.priority == priority);
+    }
+
+    // Keeps pending sorted by rank, first come first served within a rank
+    private void enqueue(Ticket ticket) {
+        int i = 0;
+        while (i < pending.size() && pending.get(i).priority.rank >= ticket.priority.rank) i++;
+        pending.add(i, ticket);
+    }
+
+    private void start(Ticket ticket) {
+        current = ticket;
+        StatusManager.setAnimationActive(true);
+        if (ticket.priority == Priority.CALL) StatusManager.setCallLedActive(true);
+        try {
+            executor.execute(() -> run(ticket));
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Could not start animation | name: " + ticket.name, e);
+            release(ticket);
+        }
+    }
+
+    private void run(Ticket ticket) {
+        try {
+            ticket.task.accept(ticket);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Exception while running animation | name: " + ticket.name, e);
+        } finally {
+            release(ticket);
+        }
+    }
+
+    private void release(Ticket ticket) {
+        Runnable claim;
+        synchronized (lock) {
+            if (current != ticket) return;
+            current = null;
+            if (ticket.priority == Priority.CALL) StatusManager.setCallLedActive(false);
+            if (ticket.isPreempted() && ticket.priority.resumes) {
+                if (DEBUG) Log.d(TAG, "Queueing preempted animation to resume | name: " + ticket.name);
+                removePending(ticket.priority);
+                enqueue(new Ticket(ticket.priority, ticket.name, ticket.task));
+            }
+            claim = torchClaim;
+            torchClaim = null;
+            dispatchNext();
+        }
+        // Outside the lock, the torch writes to the LEDs
+        if (claim != null) claim.run();
+    }
+
+    private void dispatchNext() {
+        long now = System.currentTimeMillis();
+        while (!torchActive && !pending.isEmpty()) {
+            Ticket next = pending.remove(0);
+            long maxQueued = next.priority.maxQueuedMillis;
+            if (maxQueued > 0 && now - next.requestTime > maxQueued) {
+                if (DEBUG) Log.d(TAG, "Animation waited too long, dropping | name: " + next.name);
+                droppedCount++;
+                continue;
+            }
+            start(next);
+            return;
+        }
+        StatusManager.setAnimationActive(false);
+    }
+}
@@ -18,17 +18,40 @@ package co.aospa.glyph.Manager;
 
 import android.util.Log;
 
-import com.android.internal.util.ArrayUtils;
-
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import co.aospa.glyph.Animation.CachedFrameSource;
+import co.aospa.glyph.Animation.FrameClock;
+import co.aospa.glyph.Animation.FrameCompositor;
+import co.aospa.glyph.Animation.FrameCompositor.Blend;
+import co.aospa.glyph.Animation.FrameCompositor.Kind;
+import co.aospa.glyph.Animation.FrameCompositor.Layer;
+import co.aospa.glyph.Animation.FrameSource;
+import co.aospa.glyph.Animation.LoopFrameSource;
 import co.aospa.glyph.Constants.Constants;
+import co.aospa.glyph.Constants.DeviceProfile;
+import co.aospa.glyph.Driver.GlyphLedDriver;
+import co.aospa.glyph.Manager.AnimationArbiter.Priority;
+import co.aospa.glyph.Manager.AnimationArbiter.Ticket;
 import co.aospa.glyph.Utils.FileUtils;
+import co.aospa.glyph.Utils.LedWriter;
 import co.aospa.glyph.Utils.ResourceUtils;
 
 public final class AnimationManager {
@@ -36,255 +59,608 @@ public final class AnimationManager {
     private static final String TAG = "GlyphAnimationManager";
     private static final boolean DEBUG = true;
 
-    private static Future<?> submit(Runnable runnable) {
-        ExecutorService executorService = Executors.newSingleThreadExecutor();
-        return executorService.submit(runnable);
+    // The arbiter only starts the next animation once the current one returned
+    private static final int EXECUTOR_THREADS = 1;
+    private static final int EXECUTOR_QUEUE_SIZE = 16;
+
+    private static final AtomicLong rejectedCount = new AtomicLong();
+    // Whether an essential notification is still there, a late essential animation checks it
+    private static final AtomicBoolean essentialWanted = new AtomicBoolean();
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            EXECUTOR_THREADS, EXECUTOR_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(EXECUTOR_QUEUE_SIZE),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "GlyphAnimation-" + count.incrementAndGet());
+                }
+            },
+            (runnable, pool) -> {
+                rejectedCount.incrementAndGet();
+                throw new RejectedExecutionException("Animation queue is full | queued: "
+                        + pool.getQueue().size());
+            });
+
+    private static final AnimationArbiter arbiter = new AnimationArbiter(executor);
+
+    // Frame position lit by each visualizer band, from the lows to the highs
+    private static final int[] MUSIC_ZONES = { 4, 3, 2, 0, 1 };
+    public static final int MUSIC_BANDS = MUSIC_ZONES.length;
+
+    private static final int MUSIC_FPS = 60;
+    private static final long MUSIC_FLASH_NANOS = 90 * 1_000_000L;
+    private static final long MUSIC_IDLE_NANOS = 1000 * 1_000_000L;
+    // How long to leave busy LEDs alone after a request was dropped, unless they get freed first
+    private static final long MUSIC_RETRY_NANOS = 500 * 1_000_000L;
+
+    public static final int MUSIC_LEVEL_SHIFT = 12;
+    public static final int MUSIC_LEVEL_MAX = 1 << MUSIC_LEVEL_SHIFT;
+    public static final int MUSIC_SPECTRUM_MAX_LEDS = 64;
+    // Added to the target level of a band while a beat in it flashes, envelopes turn it into a pulse
+    private static final int MUSIC_BEAT_BOOST = MUSIC_LEVEL_MAX / 2;
+
+    // Shared with the visualizer without locks: beat times, levels, spectrum, last update and loop state
+    private static final AtomicLongArray musicBeats = new AtomicLongArray(MUSIC_BANDS);
+    private static final AtomicIntegerArray musicLevels = new AtomicIntegerArray(MUSIC_BANDS);
+    private static final AtomicIntegerArray musicSpectrum = new AtomicIntegerArray(MUSIC_SPECTRUM_MAX_LEDS);
+    private static final AtomicLong musicUpdate = new AtomicLong();
+    private static final AtomicLong musicTick = new AtomicLong();
+    private static final AtomicBoolean musicRendering = new AtomicBoolean();
+    private static final AtomicLong musicRetry = new AtomicLong(System.nanoTime());
+
+    static {
+        // Music may ask for the LEDs again as soon as nothing holds them
+        StatusManager.addListener((oldStatus, newStatus) -> {
+            int busy = StatusManager.ANIMATION_ACTIVE | StatusManager.ALL_LED_ACTIVE;
+            if ((oldStatus & busy) != 0 && (newStatus & busy) == 0) {
+                musicRetry.set(System.nanoTime());
+            }
+        });
+    }
+
+    private interface SourceFactory {
+        FrameSource open() throws IOException;
+    }
+
+    /**
+     * Where charging and volume draw their levels: the LEDs, as an arbitrated
+     * animation, or an overlay over whatever the LEDs show.
+     */
+    private interface LevelCanvas {
+        void draw(int[] levels);
+
+        /** Whether to stop, the LEDs were taken or a newer animation took over. */
+        boolean isInterrupted();
+
+        /** Whether a newer animation of the same kind took over. */
+        boolean isSuperseded();
+
+        void hold(long millis) throws InterruptedException;
+
+        /** Takes the levels, {@code length} of them, off the LEDs if needed. */
+        void end(int length, boolean interrupted);
     }
 
-    private static boolean check(String name, boolean wait) {
-        if (DEBUG) Log.d(TAG, "Playing animation | name: " + name + " | waiting: " + Boolean.toString(wait));
+    private static final class TicketCanvas implements LevelCanvas {
+        private final Ticket ticket;
 
-        if (StatusManager.isAllLedActive()) {
-            if (DEBUG) Log.d(TAG, "All LEDs are active, exiting animation | name: " + name);
-            return false;
+        TicketCanvas(Ticket ticket) {
+            this.ticket = ticket;
         }
 
-        if (StatusManager.isCallLedActive()) {
-            if (DEBUG) Log.d(TAG, "Call animation is currently active, exiting animation | name: " + name);
-            return false;
+        @Override
+        public void draw(int[] levels) {
+            updateLedFrame(levels);
         }
 
-        if (StatusManager.isAnimationActive()) {
-            long start = System.currentTimeMillis();
-            if (name == "volume" && StatusManager.isVolumeLedActive()) {
-                if (DEBUG) Log.d(TAG, "There is already a volume animation playing, update");
-                StatusManager.setVolumeLedUpdate(true);
-                while (StatusManager.isVolumeLedUpdate()) {
-                    if (System.currentTimeMillis() - start >= 2500) return false;
-                }
-            } else if (wait) {
-                if (DEBUG) Log.d(TAG, "There is already an animation playing, wait | name: " + name);
-                while (StatusManager.isAnimationActive()) {
-                    if (System.currentTimeMillis() - start >= 2500) return false;
+        @Override
+        public boolean isInterrupted() {
+            return checkInterruption(ticket);
+        }
+
+        @Override
+        public boolean isSuperseded() {
+            return ticket.getPreemptedBy() == ticket.getPriority();
+        }
+
+        @Override
+        public void hold(long millis) throws InterruptedException {
+            AnimationManager.hold(ticket, millis);
+        }
+
+        @Override
+        public void end(int length, boolean interrupted) {
+            // Finished animations already faded out
+            if (interrupted && !StatusManager.isAllLedActive() && !isSuperseded()) {
+                updateLedFrame(new int[length]);
+            }
+        }
+    }
+
+    /**
+     * Charging or volume drawn in a layer over the running animation, instead of
+     * waiting for the LEDs and taking them over. Plays on its own thread, a newer
+     * one supersedes the one playing.
+     */
+    private static final class Overlay {
+        // Position of each level in overlay frames
+        private final int[] leds;
+        private final Layer layer;
+        private final AtomicInteger sequence = new AtomicInteger();
+        private final ExecutorService executor;
+        private Future<?> future = null;
+
+        Overlay(String name, int[] leds, Layer layer) {
+            this.leds = leds;
+            this.layer = layer;
+            layer.setEnabled(false);
+            executor = Executors.newSingleThreadExecutor(
+                    runnable -> new Thread(runnable, "GlyphOverlay-" + name));
+        }
+
+        synchronized void play(Consumer<LevelCanvas> animation) {
+            int run = sequence.incrementAndGet();
+            if (future != null) future.cancel(true);
+            future = executor.submit(() -> animation.accept(new OverlayCanvas(this, run)));
+        }
+
+        // Also hides it, the animation that takes over does not draw in the layer
+        void stop() {
+            synchronized (this) {
+                sequence.incrementAndGet();
+                if (future != null) future.cancel(true);
+                future = null;
+            }
+            FrameCompositor frameCompositor = getCompositor();
+            synchronized (frameCompositor) {
+                if (layer.isEnabled()) hide(frameCompositor);
+            }
+        }
+
+        // Called with the compositor lock held
+        private void hide(FrameCompositor frameCompositor) {
+            layer.clear();
+            layer.setEnabled(false);
+            refreshOverlays(frameCompositor);
+        }
+    }
+
+    private static final class OverlayCanvas implements LevelCanvas {
+        private final Overlay overlay;
+        private final int run;
+
+        OverlayCanvas(Overlay overlay, int run) {
+            this.overlay = overlay;
+            this.run = run;
+        }
+
+        @Override
+        public void draw(int[] levels) {
+            FrameCompositor frameCompositor = getCompositor();
+            synchronized (frameCompositor) {
+                if (isSuperseded()) return;
+                for (int i = 0; i < levels.length; i++) {
+                    overlay.layer.set(overlay.leds[i], levels[i]);
                 }
-            } else {
-                if (DEBUG) Log.d(TAG, "There is already an animation playing, exiting | name: " + name);
-                return false;
+                overlay.layer.setEnabled(true);
+                refreshOverlays(frameCompositor);
             }
         }
 
-        return true;
+        @Override
+        public boolean isInterrupted() {
+            return isSuperseded() || StatusManager.isAllLedActive();
+        }
+
+        @Override
+        public boolean isSuperseded() {
+            return overlay.sequence.get() != run;
+        }
+
+        @Override
+        public void hold(long millis) throws InterruptedException {
+            // A newer one interrupts the thread, the torch wakes it up
+            if (StatusManager.await(this::isInterrupted, millis)) throw new InterruptedException();
+        }
+
+        @Override
+        public void end(int length, boolean interrupted) {
+            FrameCompositor frameCompositor = getCompositor();
+            synchronized (frameCompositor) {
+                if (!isSuperseded()) overlay.hide(frameCompositor);
+            }
+        }
     }
 
-    private static boolean checkInterruption(String name) {
-        if (StatusManager.isAllLedActive()
-                || (name != "call" && StatusManager.isCallLedEnabled())
-                || (name == "call" && !StatusManager.isCallLedEnabled())
-                || (name == "volume" && StatusManager.isVolumeLedUpdate())) {
+    private static FrameCompositor compositor = null;
+    private static Layer[] essentialLayers = null;
+    private static int essentialBrightness = -1;
+    // Null on devices where charging and volume can not draw over animations
+    private static Overlay chargingOverlay = null;
+    private static Overlay volumeOverlay = null;
+    // Last frame of the running animation in the overlay layout, and the length of its last frame,
+    // guarded by the compositor
+    private static int[] overlayBase = null;
+    private static int baseLength = 0;
+
+    // Orders lighting the torch from the animation thread against turning it off
+    private static final Object torchLock = new Object();
+
+    public static int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public static long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public static AnimationArbiter getArbiter() {
+        return arbiter;
+    }
+
+    public static GlyphLedDriver getLedDriver() {
+        return FileUtils.getLedDriver();
+    }
+
+    /**
+     * Sends every LED write, from animations or not, to {@code driver} from now on.
+     * A {@link co.aospa.glyph.Driver.RecordingLedDriver} captures what the engine
+     * outputs, a {@link co.aospa.glyph.Driver.FileLedDriver} keeps it off the real
+     * nodes. The engine still runs in the app, on the device profile and resources.
+     */
+    public static void setLedDriver(GlyphLedDriver driver) {
+        FileUtils.setLedDriver(driver);
+    }
+
+    private static synchronized FrameCompositor getCompositor() {
+        if (compositor != null) return compositor;
+
+        // The essential LED sits at a different position in each frame layout
+        DeviceProfile profile = DeviceProfile.get();
+        int brightness = getEssentialBrightness();
+        FrameCompositor frameCompositor = new FrameCompositor(Constants.PATTERN_VALUE_MAX);
+        List<Layer> layers = new ArrayList<>();
+        for (int length : profile.getSupportedPatternLengths()) {
+            int led = profile.getEssentialFrameLed(length);
+            if (led < 0) continue;
+            Layer layer = frameCompositor.addLayer("essential", Kind.INDICATOR, Blend.MAX, length);
+            layer.set(led, brightness);
+            layer.setEnabled(StatusManager.isEssentialLedActive());
+            layers.add(layer);
+        }
+        essentialLayers = layers.toArray(new Layer[0]);
+        StatusManager.addListener((oldStatus, newStatus) -> {
+            if (((oldStatus ^ newStatus) & StatusManager.ESSENTIAL_LED_ACTIVE) == 0) return;
+            boolean active = (newStatus & StatusManager.ESSENTIAL_LED_ACTIVE) != 0;
+            for (Layer layer : essentialLayers) {
+                layer.setEnabled(active);
+            }
+        });
+
+        // Levels replace what the animation shows below them, so they stay readable
+        int overlayLength = profile.getOverlayLength();
+        if (overlayLength > 0) {
+            overlayBase = new int[overlayLength];
+            int[] batteryLeds = profile.getBatteryFrameLeds();
+            if (batteryLeds != null) {
+                chargingOverlay = new Overlay("charging", batteryLeds, frameCompositor.addLayer(
+                        "charging", Kind.OVERLAY, Blend.REPLACE, overlayLength));
+            }
+            int[] volumeLeds = profile.getVolumeFrameLeds();
+            if (volumeLeds != null) {
+                volumeOverlay = new Overlay("volume", volumeLeds, frameCompositor.addLayer(
+                        "volume", Kind.OVERLAY, Blend.REPLACE, overlayLength));
+            }
+            // The animation ending, or the torch going off, leaves the LEDs without the overlays
+            StatusManager.addListener((oldStatus, newStatus) -> {
+                int busy = StatusManager.ANIMATION_ACTIVE | StatusManager.ALL_LED_ACTIVE;
+                if ((oldStatus & busy) == 0 || (newStatus & busy) != 0) return;
+                synchronized (frameCompositor) {
+                    if (isOverlayShown(chargingOverlay) || isOverlayShown(volumeOverlay)) {
+                        refreshOverlays(frameCompositor);
+                    }
+                }
+            });
+        }
+        compositor = frameCompositor;
+        return compositor;
+    }
+
+    private static boolean isOverlayShown(Overlay overlay) {
+        return overlay != null && overlay.layer.isEnabled();
+    }
+
+    // Whether the overlay would show, the running animation, if any, has to use its layout
+    private static boolean canDrawOverlay(Overlay overlay) {
+        if (overlay == null) return false;
+        FrameCompositor frameCompositor = getCompositor();
+        synchronized (frameCompositor) {
+            return !StatusManager.isAnimationActive() || baseLength == overlayBase.length;
+        }
+    }
+
+    // Draws the overlays over the last frame of the running animation, or over blank LEDs.
+    // Called with the compositor lock held.
+    private static void refreshOverlays(FrameCompositor frameCompositor) {
+        if (StatusManager.isAllLedActive()) return;
+        int[] base;
+        if (!StatusManager.isAnimationActive()) {
+            base = new int[overlayBase.length];
+        } else if (baseLength == overlayBase.length) {
+            base = overlayBase;
+        } else {
+            // Shown once the animation, in another layout, is over
+            return;
+        }
+        writeLedFrame(frameCompositor.compose(base));
+    }
+
+    private static int getEssentialLed() {
+        return DeviceProfile.get().getEssentialLed();
+    }
+
+    // 7% of the LED range, whatever the brightness curve does to low values
+    private static int getEssentialBrightness() {
+        if (essentialBrightness == -1)
+            essentialBrightness = Constants.removeGamma((float) Constants.getMaxBrightness() / 100 * 7);
+
+        return essentialBrightness;
+    }
+
+    private static boolean checkInterruption(Ticket ticket) {
+        if (ticket.isPreempted()
+                || StatusManager.isAllLedActive()
+                || (ticket.getPriority() == Priority.CALL && !StatusManager.isCallLedEnabled())) {
             return true;
         }
         return false;
     }
 
+    // Holds the current frame for up to the given time, waking up as soon as the animation gets interrupted
+    private static void hold(Ticket ticket, long millis) throws InterruptedException {
+        if (StatusManager.await(() -> checkInterruption(ticket), millis)) throw new InterruptedException();
+    }
+
+    /**
+     * Lights every LED for the torch, or turns them back off. Does not block: the
+     * LEDs light up once the current animation gave them up.
+     */
+    public static void setTorchActive(boolean active) {
+        if (active) {
+            arbiter.claimTorch(AnimationManager::lightTorch);
+            return;
+        }
+        synchronized (torchLock) {
+            FileUtils.writeAllLed(0);
+            if (StatusManager.isEssentialLedActive()) {
+                updateLedSingle(getEssentialLed(), getEssentialBrightness());
+            }
+            arbiter.releaseTorch();
+        }
+    }
+
+    private static void lightTorch() {
+        synchronized (torchLock) {
+            // Turned off before the LEDs were handed over
+            if (!StatusManager.isAllLedActive()) return;
+            FileUtils.writeAllLed(Constants.getMaxBrightness());
+        }
+    }
+
     public static void playCsv(String name) {
-        playCsv(name, false);
+        playCsv(name, Priority.NOTIFICATION);
     }
 
-    public static void playCsv(String name, boolean wait) {
-        submit(() -> {
-            if (!check(name, wait))
-                return;
+    public static void playCsv(String name, Priority priority) {
+        playSource(name, priority, () -> new CachedFrameSource(ResourceUtils.getAnimationFrames(name)));
+    }
 
-            StatusManager.setAnimationActive(true);
-
-            long start = System.currentTimeMillis();
-
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    ResourceUtils.getAnimation(name)))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (checkInterruption("csv")) throw new InterruptedException();
-                    line = line.replace(" ", "");
-                    line = line.endsWith(",") ? line.substring(0, line.length() - 1) : line;
-                    String[] pattern = line.split(",");
-                    if (ArrayUtils.contains(Constants.getSupportedAnimationPatternLengths(), pattern.length)) {
-                        updateLedFrame(pattern);
-                    } else {
-                        if (DEBUG) Log.d(TAG, "Animation line length mismatch | name: " + name + " | line: " + line);
-                        throw new InterruptedException();
-                    }
-                    long delay = 16666L - (System.currentTimeMillis() - start);
-                    Thread.sleep(delay/1000);
-                }
+    /**
+     * Plays a source of any length, streaming it. The source is reset every
+     * time it (re)starts and closed once it is done.
+     */
+    public static void playSource(String name, FrameSource source, Priority priority) {
+        playSource(name, priority, () -> {
+            source.reset();
+            return source;
+        });
+    }
+
+    private static void playSource(String name, Priority priority, SourceFactory factory) {
+        if (DEBUG) Log.d(TAG, "Playing animation | name: " + name + " | priority: " + priority);
+        arbiter.request(priority, name, ticket -> {
+            FrameClock clock = null;
+
+            try (FrameSource source = factory.open()) {
+                clock = new FrameClock(source.getFps());
+                playFrames(ticket, source, clock);
             } catch (Exception e) {
                 if (DEBUG) Log.d(TAG, "Exception while playing animation | name: " + name + " | exception: " + e);
             } finally {
-                updateLedFrame(new float[5]);
-                StatusManager.setAnimationActive(false);
-                if (DEBUG) Log.d(TAG, "Done playing animation | name: " + name);
+                if (!StatusManager.isAllLedActive()) {
+                    updateLedFrame(new float[5]);
+                }
+                if (DEBUG) Log.d(TAG, "Done playing animation | name: " + name
+                        + (clock != null ? " | " + clock : "")
+                        + " | frame writes issued: " + FileUtils.getFrameWritesIssued()
+                        + " | skipped: " + FileUtils.getFrameWritesSkipped()
+                        + " | led by led: " + FileUtils.getSparseFrameWrites()
+                        + " | write latency: " + FileUtils.getFrameWriteLatencyNanos() / 1000
+                        + "us (max " + FileUtils.getMaxFrameWriteLatencyNanos() / 1000 + "us)"
+                        + " | superseded: " + LedWriter.getSupersededCount()
+                        + " | stale: " + LedWriter.getStaleCount()
+                        + " | queue delay: " + LedWriter.getQueueDelayNanos() / 1000
+                        + "us (max " + LedWriter.getMaxQueueDelayNanos() / 1000 + "us)");
             }
         });
     }
 
-    public static void playCharging(int batteryLevel, boolean wait) {
-        submit(() -> {
-            if (!check("charging", wait))
-                return;
-
-            StatusManager.setAnimationActive(true);
+    // Plays until the source runs out, frames the clock skips are pulled but never written
+    private static void playFrames(Ticket ticket, FrameSource source, FrameClock clock)
+            throws IOException, InterruptedException {
+        if (!DeviceProfile.get().supportsPatternLength(source.getLedCount())) {
+            throw new IOException("Animation length mismatch | length: " + source.getLedCount());
+        }
+        int[] pattern = new int[source.getLedCount()];
+        int position = 0;
+        for (int i = clock.start(); ; i = clock.awaitFrame(i + 1)) {
+            if (checkInterruption(ticket)) throw new InterruptedException();
+            if (!source.skipFrames(i - position, pattern) || !source.nextFrame(pattern)) break;
+            position = i + 1;
+            updateLedFrame(pattern);
+        }
+    }
 
-            boolean batteryDot = ResourceUtils.getBoolean("glyph_settings_battery_dot");
-            int[] batteryArray = new int[ResourceUtils.getInteger("glyph_settings_battery_levels_num")];
-            int amount = (int) (Math.floor((batteryLevel / 100.0) * (batteryArray.length - (batteryDot ? 2 : 1))) + (batteryDot ? 2 : 1));
+    public static void playCharging(int batteryLevel) {
+        if (DEBUG) Log.d(TAG, "Playing animation | name: charging");
+        // Sets the overlays up
+        getCompositor();
+        if (canDrawOverlay(chargingOverlay)) {
+            chargingOverlay.play(canvas -> drawCharging(canvas, batteryLevel));
+            return;
+        }
+        if (chargingOverlay != null) chargingOverlay.stop();
+        arbiter.request(Priority.CHARGING, "charging",
+                ticket -> drawCharging(new TicketCanvas(ticket), batteryLevel));
+    }
 
-            try {
-                for (int i = 0; i < batteryArray.length; i++) {
-                    if (checkInterruption("charging")) throw new InterruptedException();
-                    batteryArray[i] = Constants.getBrightness();
-                    if (batteryDot && i == 0) continue;
-                    updateLedFrame(batteryArray);
-                    Thread.sleep(15);
-                }
-                for (int i = batteryArray.length - 1; i > amount - 1; i--) {
-                    if (checkInterruption("charging")) throw new InterruptedException();
-                    batteryArray[i] = 0;
-                    updateLedFrame(batteryArray);
-                    Thread.sleep(5);
-                }
-                long start = System.currentTimeMillis();
-                while (System.currentTimeMillis() - start <= 2000) {
-                    if (checkInterruption("charging")) throw new InterruptedException();
-                }
-                for (int i = amount - 1; i >= 0; i--) {
-                    if (checkInterruption("charging")) throw new InterruptedException();
-                    batteryArray[i] = 0;
-                    updateLedFrame(batteryArray);
-                    Thread.sleep(11);
-                }
-                long start2 = System.currentTimeMillis();
-                while (System.currentTimeMillis() - start2 <= 730) {
-                    if (checkInterruption("charging")) throw new InterruptedException();
-                }
-            } catch (InterruptedException e) {
-                if (DEBUG) Log.d(TAG, "Exception while playing animation, interrupted | name: charging");
-                if (!StatusManager.isAllLedActive()) {
-                    updateLedFrame(new int[batteryArray.length]);
-                }
-            } finally {
-                StatusManager.setAnimationActive(false);
-                if (DEBUG) Log.d(TAG, "Done playing animation | name: charging");
+    private static void drawCharging(LevelCanvas canvas, int batteryLevel) {
+        DeviceProfile profile = DeviceProfile.get();
+        boolean batteryDot = profile.hasBatteryDot();
+        int[] batteryArray = new int[profile.getBatteryLevels()];
+        // A fixed drive level, not an authored value, so it goes around the curve
+        int brightness = Constants.removeGamma(Constants.getBrightness());
+        int amount = (int) (Math.floor((batteryLevel / 100.0) * (batteryArray.length - (batteryDot ? 2 : 1))) + (batteryDot ? 2 : 1));
+        boolean interrupted = false;
+
+        try {
+            for (int i = 0; i < batteryArray.length; i++) {
+                if (canvas.isInterrupted()) throw new InterruptedException();
+                batteryArray[i] = brightness;
+                if (batteryDot && i == 0) continue;
+                canvas.draw(batteryArray);
+                Thread.sleep(15);
             }
-        });
+            for (int i = batteryArray.length - 1; i > amount - 1; i--) {
+                if (canvas.isInterrupted()) throw new InterruptedException();
+                batteryArray[i] = 0;
+                canvas.draw(batteryArray);
+                Thread.sleep(5);
+            }
+            canvas.hold(2000);
+            for (int i = amount - 1; i >= 0; i--) {
+                if (canvas.isInterrupted()) throw new InterruptedException();
+                batteryArray[i] = 0;
+                canvas.draw(batteryArray);
+                Thread.sleep(11);
+            }
+            canvas.hold(730);
+        } catch (InterruptedException e) {
+            if (DEBUG) Log.d(TAG, "Exception while playing animation, interrupted | name: charging");
+            interrupted = true;
+        } finally {
+            canvas.end(batteryArray.length, interrupted);
+            if (DEBUG) Log.d(TAG, "Done playing animation | name: charging");
+        }
     }
 
-    public static void playVolume(int volumeLevel, boolean wait) {
-        submit(() -> {
-            if (!check("volume", wait))
-                return;
+    public static void playVolume(int volumeLevel) {
+        if (DEBUG) Log.d(TAG, "Playing animation | name: volume | level: " + volumeLevel);
+        // Sets the overlays up
+        getCompositor();
+        if (canDrawOverlay(volumeOverlay)) {
+            volumeOverlay.play(canvas -> drawVolume(canvas, volumeLevel));
+            return;
+        }
+        if (volumeOverlay != null) volumeOverlay.stop();
+        arbiter.request(Priority.VOLUME, "volume",
+                ticket -> drawVolume(new TicketCanvas(ticket), volumeLevel));
+    }
 
-            StatusManager.setVolumeLedActive(true);
-            StatusManager.setAnimationActive(true);
-
-            int[] volumeArray = new int[ResourceUtils.getInteger("glyph_settings_volume_levels_num")];
-            int amount = (int) (Math.floor((volumeLevel / 100D) * (volumeArray.length - 1)) + 1);
-            int last = StatusManager.getVolumeLedLast();
-
-            try {
-                for (int i = 0; i < volumeArray.length; i++) {
-                    if (volumeLevel == 0) {
-                        if (checkInterruption("volume")) throw new InterruptedException();
-                        StatusManager.setVolumeLedLast(0);
-                        updateLedFrame(new int[volumeArray.length]);
-                        break;
-                    } else if ( i <= amount - 1 && volumeLevel > 0) {
-                        if (checkInterruption("volume")) throw new InterruptedException();
-                        StatusManager.setVolumeLedLast(i);
-                        volumeArray[i] = Constants.getBrightness();
-                        if (last == 0) {
-                            updateLedFrame(volumeArray);
-                            Thread.sleep(15);
-                        }
-                    }
-                }
-                if (last != 0) {
-                    if (checkInterruption("volume")) throw new InterruptedException();
-                    updateLedFrame(volumeArray);
-                }
-                long start = System.currentTimeMillis();
-                while (System.currentTimeMillis() - start <= 1800) {
-                    if (checkInterruption("volume")) throw new InterruptedException();
-                }
-                for (int i = volumeArray.length - 1; i >= 0; i--) {
-                    if (checkInterruption("volume")) throw new InterruptedException();
-                    if (volumeArray[i] != 0) {
-                        StatusManager.setVolumeLedLast(i);
-                        volumeArray[i] = 0;
-                        updateLedFrame(volumeArray);
+    private static void drawVolume(LevelCanvas canvas, int volumeLevel) {
+        StatusManager.setVolumeLedActive(true);
+
+        int[] volumeArray = new int[DeviceProfile.get().getVolumeLevels()];
+        int brightness = Constants.removeGamma(Constants.getBrightness());
+        int amount = (int) (Math.floor((volumeLevel / 100D) * (volumeArray.length - 1)) + 1);
+        int last = StatusManager.getVolumeLedLast();
+        boolean interrupted = false;
+
+        try {
+            for (int i = 0; i < volumeArray.length; i++) {
+                if (volumeLevel == 0) {
+                    if (canvas.isInterrupted()) throw new InterruptedException();
+                    StatusManager.setVolumeLedLast(0);
+                    canvas.draw(new int[volumeArray.length]);
+                    break;
+                } else if ( i <= amount - 1 && volumeLevel > 0) {
+                    if (canvas.isInterrupted()) throw new InterruptedException();
+                    StatusManager.setVolumeLedLast(i);
+                    volumeArray[i] = brightness;
+                    if (last == 0) {
+                        canvas.draw(volumeArray);
                         Thread.sleep(15);
                     }
                 }
-                long start2 = System.currentTimeMillis();
-                while (System.currentTimeMillis() - start2 <= 730) {
-                    if (checkInterruption("volume")) throw new InterruptedException();
-                }
-            } catch (InterruptedException e) {
-                if (DEBUG) Log.d(TAG, "Exception while playing animation, interrupted | name: volume");
-                if (!StatusManager.isAllLedActive() && !StatusManager.isVolumeLedUpdate()) {
-                    updateLedFrame(new int[volumeArray.length]);
-                }
-            } finally {
-                if (!StatusManager.isVolumeLedUpdate()) {
-                    StatusManager.setVolumeLedLast(0);
-                    StatusManager.setAnimationActive(false);
-                    StatusManager.setVolumeLedActive(false);
+            }
+            if (last != 0) {
+                if (canvas.isInterrupted()) throw new InterruptedException();
+                canvas.draw(volumeArray);
+            }
+            canvas.hold(1800);
+            for (int i = volumeArray.length - 1; i >= 0; i--) {
+                if (canvas.isInterrupted()) throw new InterruptedException();
+                if (volumeArray[i] != 0) {
+                    StatusManager.setVolumeLedLast(i);
+                    volumeArray[i] = 0;
+                    canvas.draw(volumeArray);
+                    Thread.sleep(15);
                 }
-                StatusManager.setVolumeLedUpdate(false);
-                if (DEBUG) Log.d(TAG, "Done playing animation | name: volume");
             }
-        });
+            canvas.hold(730);
+        } catch (InterruptedException e) {
+            if (DEBUG) Log.d(TAG, "Exception while playing animation, interrupted | name: volume");
+            interrupted = true;
+        } finally {
+            canvas.end(volumeArray.length, interrupted);
+            // A newer volume animation takes over from where this one left
+            if (!canvas.isSuperseded()) {
+                StatusManager.setVolumeLedLast(0);
+                StatusManager.setVolumeLedActive(false);
+            }
+            if (DEBUG) Log.d(TAG, "Done playing animation | name: volume");
+        }
     }
 
     public static void playCall(String name) {
-        submit(() -> {
-            StatusManager.setCallLedEnabled(true);
+        if (DEBUG) Log.d(TAG, "Playing animation | name: call: " + name);
+        StatusManager.setCallLedEnabled(true);
 
-            if (!check("call: " + name, true))
+        arbiter.request(Priority.CALL, "call: " + name, ticket -> {
+            if (!StatusManager.isCallLedEnabled()) {
+                if (DEBUG) Log.d(TAG, "Call ended before animation could play | name: " + name);
                 return;
+            }
 
-            StatusManager.setCallLedActive(true);
-
-            long start = System.currentTimeMillis();
-
-            while (StatusManager.isCallLedEnabled()) {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                        ResourceUtils.getCallAnimation(name)))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        if (checkInterruption("call")) throw new InterruptedException();
-                        line = line.replace(" ", "");
-                        line = line.endsWith(",") ? line.substring(0, line.length() - 1) : line;
-                        String[] pattern = line.split(",");
-                        if (ArrayUtils.contains(Constants.getSupportedAnimationPatternLengths(), pattern.length)) {
-                            updateLedFrame(pattern);
-                        } else {
-                            if (DEBUG) Log.d(TAG, "Animation line length mismatch | name: " + name + " | line: " + line);
-                            throw new InterruptedException();
-                        }
-                        long delay = 16666L - (System.currentTimeMillis() - start);
-                        Thread.sleep(delay/1000);
-                    }
-                } catch (Exception e) {
-                    if (DEBUG) Log.d(TAG, "Exception while playing animation | name: " + name + " | exception: " + e);
-                } finally {
-                    if (StatusManager.isAllLedActive()) {
-                        if (DEBUG) Log.d(TAG, "All LED active, pause playing animation | name: " + name);
-                        while (StatusManager.isAllLedActive()) {}
-                    }
-                }
+            FrameClock clock = null;
+            try (FrameSource source = new LoopFrameSource(new CachedFrameSource(
+                    ResourceUtils.getCallAnimationFrames(name)), LoopFrameSource.LOOP_FOREVER)) {
+                clock = new FrameClock(source.getFps());
+                playFrames(ticket, source, clock);
+            } catch (InterruptedException e) {
+                if (DEBUG) Log.d(TAG, "Call animation interrupted | name: " + name);
+            } catch (Exception e) {
+                if (DEBUG) Log.d(TAG, "Exception while playing animation | name: " + name + " | exception: " + e);
+            }
+            // When preempted the arbiter resumes the animation once the LEDs are free again
+            if (!StatusManager.isAllLedActive()) {
+                updateLedFrame(new float[5]);
             }
-            updateLedFrame(new float[5]);
-            StatusManager.setCallLedActive(false);
-            if (DEBUG) Log.d(TAG, "Done playing animation | name: " + name);
+            if (DEBUG) Log.d(TAG, "Done playing animation | name: " + name
+                    + (clock != null ? " | " + clock : ""));
         });
     }
 
@@ -295,31 +671,31 @@ public final class AnimationManager {
 
     public static void playEssential() {
         if (DEBUG) Log.d(TAG, "Playing Essential Animation");
-        int led = ResourceUtils.getInteger("glyph_settings_notifs_essential_led");
+        essentialWanted.set(true);
+        int led = getEssentialLed();
         if (!StatusManager.isEssentialLedActive()) {
-            submit(() -> {
-                if (!check("essential", true))
-                    return;
-
-                StatusManager.setAnimationActive(true);
-
+            arbiter.request(Priority.ESSENTIAL, "essential", ticket -> {
                 try {
-                    if (checkInterruption("essential")) throw new InterruptedException();
+                    if (checkInterruption(ticket)) throw new InterruptedException();
                     int[] steps = {1, 2, 4, 7};
                     for (int i : steps) {
-                        if (checkInterruption("essential")) throw new InterruptedException();
-                        updateLedSingle(led, Constants.getMaxBrightness() / 100 * i);
+                        if (checkInterruption(ticket)) throw new InterruptedException();
+                        updateLedSingle(led, Constants.removeGamma(Constants.getMaxBrightness() / 100 * i));
                         Thread.sleep(25);
                     }
-                    Thread.sleep(250);
+                    hold(ticket, 250);
                 } catch (InterruptedException e) {}
 
-                StatusManager.setAnimationActive(false);
                 StatusManager.setEssentialLedActive(true);
+                // The notification went away while this was queued or fading in
+                if (!essentialWanted.get()) {
+                    StatusManager.setEssentialLedActive(false);
+                    if (!StatusManager.isAllLedActive()) updateLedSingle(led, 0);
+                }
                 if (DEBUG) Log.d(TAG, "Done playing animation | name: essential");
             });
         } else {
-            updateLedSingle(led, Constants.getMaxBrightness() / 100 * 7);
+            updateLedSingle(led, getEssentialBrightness());
             return;
         }
 
@@ -327,84 +703,184 @@ public final class AnimationManager {
 
     public static void stopEssential() {
         if (DEBUG) Log.d(TAG, "Disabling Essential Animation");
+        essentialWanted.set(false);
+        arbiter.cancel(Priority.ESSENTIAL);
         StatusManager.setEssentialLedActive(false);
         if (!StatusManager.isAnimationActive() && !StatusManager.isAllLedActive()) {
-            int led = ResourceUtils.getInteger("glyph_settings_notifs_essential_led");
-            updateLedSingle(led, 0);
+            updateLedSingle(getEssentialLed(), 0);
         }
     }
 
-    public static void playMusic(String name) {
-        submit(() -> {
-            float maxBrightness = (float) Constants.getMaxBrightness();
-            float[] pattern = new float[5];
+    /**
+     * Records a beat in one of the {@link #MUSIC_BANDS} visualizer bands.
+     * Cheap and lock free, the render loop picks it up on its next tick.
+     * Meant to be called from a single thread, the visualizer callback.
+     */
+    public static void playMusic(int band) {
+        long now = System.nanoTime();
+        musicBeats.set(band, now);
+        startMusic(now);
+    }
 
-            switch (name) {
-                case "low":
-                    pattern[4] = maxBrightness;
-                    break;
-                case "mid_low":
-                    pattern[3] = maxBrightness;
-                    break;
-                case "mid":
-                    pattern[2] = maxBrightness;
-                    break;
-                case "mid_high":
-                    pattern[0] = maxBrightness;
-                    break;
-                case "high":
-                    pattern[1] = maxBrightness;
+    /**
+     * Sets the energy of a visualizer band, from 0 to {@link #MUSIC_LEVEL_MAX},
+     * which envelopes follow when the device supports it. Same rules as
+     * {@link #playMusic(int)}.
+     */
+    public static void setMusicLevel(int band, int level) {
+        musicLevels.set(band, Math.max(0, Math.min(level, MUSIC_LEVEL_MAX)));
+        // Silence alone does not keep the loop going
+        if (level > 0) startMusic(System.nanoTime());
+    }
+
+    /**
+     * Sets the level of every spectrum LED, from the lows to the highs and
+     * from 0 to {@link #MUSIC_LEVEL_MAX}. Same rules as {@link #playMusic(int)}.
+     */
+    public static void setMusicSpectrum(int[] levels) {
+        boolean sound = false;
+        for (int led = 0; led < levels.length && led < MUSIC_SPECTRUM_MAX_LEDS; led++) {
+            musicSpectrum.set(led, Math.max(0, Math.min(levels[led], MUSIC_LEVEL_MAX)));
+            sound |= levels[led] > 0;
+        }
+        if (sound) startMusic(System.nanoTime());
+    }
+
+    private static void startMusic(long now) {
+        musicUpdate.set(now);
+        // The loop reports each tick, a request the executor never ran does not block a new one
+        if (musicRendering.get() && now - musicTick.get() < MUSIC_IDLE_NANOS) return;
+        // Something else holds the LEDs, do not ask on every capture
+        if (now - musicRetry.get() < 0) return;
+        musicRendering.set(true);
+        musicTick.set(now);
+        if (!arbiter.request(Priority.MUSIC, "music", AnimationManager::renderMusic)) {
+            musicRendering.set(false);
+            musicRetry.set(now + MUSIC_RETRY_NANOS);
+        }
+    }
+
+    /*
+     * One long lived loop renders the music at a fixed rate, writing a frame
+     * only when it changed. It gives the LEDs back as soon as anything else
+     * wants them, or once the music went quiet, and the next beat restarts it.
+     */
+    private static void renderMusic(Ticket ticket) {
+        DeviceProfile profile = DeviceProfile.get();
+        int[] frameBands = profile.getMusicFrameBands();
+        int[] spectrumLeds = profile.getMusicSpectrumLeds();
+        boolean spectrum = profile.hasMusicSpectrum() && spectrumLeds.length <= MUSIC_SPECTRUM_MAX_LEDS;
+        boolean envelope = !spectrum && profile.hasMusicEnvelope()
+                && profile.supportsPatternLength(frameBands.length);
+        if (DEBUG) Log.d(TAG, "Playing animation | name: music | spectrum: " + spectrum
+                + " | envelope: " + envelope);
+
+        // Music frames are authored values like any animation, the brightness tables scale them
+        int maxValue = Constants.PATTERN_VALUE_MAX;
+        int[] pattern = new int[spectrum || envelope ? frameBands.length : 5];
+        int[] lastPattern = new int[pattern.length];
+        // Envelopes and their per tick coefficients are fixed point, MUSIC_LEVEL_SHIFT and 16 bits
+        int[] envelopes = new int[spectrum ? spectrumLeds.length : MUSIC_BANDS];
+        int[] beatBoosts = new int[MUSIC_BANDS];
+        // Band of each spectrum LED, for its beats
+        int[] spectrumBands = new int[spectrum ? spectrumLeds.length : 0];
+        for (int led = 0; led < spectrumBands.length; led++) {
+            spectrumBands[led] = frameBands[spectrumLeds[led]];
+        }
+        int attack = getEnvelopeCoefficient(profile.getMusicAttackMillis());
+        int decay = getEnvelopeCoefficient(profile.getMusicDecayMillis());
+        FrameClock clock = new FrameClock(MUSIC_FPS);
+
+        try {
+            for (int i = clock.start(); ; i = clock.awaitFrame(i + 1)) {
+                long now = System.nanoTime();
+                musicTick.set(now);
+                if (checkInterruption(ticket) || arbiter.getPendingCount() > 0
+                        || now - musicUpdate.get() > MUSIC_IDLE_NANOS) {
                     break;
-                default:
-                    if (DEBUG) Log.d(TAG, "Name doesn't match any zone, returning | name: " + name);
-                    return;
+                }
+                for (int band = 0; band < MUSIC_BANDS; band++) {
+                    beatBoosts[band] = now - musicBeats.get(band) < MUSIC_FLASH_NANOS ? MUSIC_BEAT_BOOST : 0;
+                }
+                if (spectrum) {
+                    for (int led = 0; led < spectrumLeds.length; led++) {
+                        int target = Math.min(musicSpectrum.get(led) + beatBoosts[spectrumBands[led]],
+                                MUSIC_LEVEL_MAX);
+                        envelopes[led] = stepEnvelope(envelopes[led], target, attack, decay);
+                        pattern[spectrumLeds[led]] = (envelopes[led] * maxValue) >> MUSIC_LEVEL_SHIFT;
+                    }
+                } else if (envelope) {
+                    for (int band = 0; band < MUSIC_BANDS; band++) {
+                        int target = Math.min(musicLevels.get(band) + beatBoosts[band], MUSIC_LEVEL_MAX);
+                        envelopes[band] = stepEnvelope(envelopes[band], target, attack, decay);
+                    }
+                    for (int led = 0; led < pattern.length; led++) {
+                        pattern[led] = (envelopes[frameBands[led]] * maxValue) >> MUSIC_LEVEL_SHIFT;
+                    }
+                } else {
+                    for (int band = 0; band < MUSIC_BANDS; band++) {
+                        pattern[MUSIC_ZONES[band]] = beatBoosts[band] > 0 ? maxValue : 0;
+                    }
+                }
+                if (!Arrays.equals(pattern, lastPattern)) {
+                    System.arraycopy(pattern, 0, lastPattern, 0, pattern.length);
+                    updateLedFrame(pattern);
+                }
             }
-
-            try {
-                updateLedFrame(pattern);
-                Thread.sleep(90);
-            } catch (Exception e) {
-                if (DEBUG) Log.d(TAG, "Exception while playing animation | name: music: " + name + " | exception: " + e);
-            } finally {
-                updateLedFrame(new float[5]);
-                if (DEBUG) Log.d(TAG, "Done playing animation | name: " + name);
+        } catch (InterruptedException e) {
+            if (DEBUG) Log.d(TAG, "Exception while playing animation, interrupted | name: music");
+        } finally {
+            musicRendering.set(false);
+            if (!StatusManager.isAllLedActive() && !Arrays.equals(lastPattern, new int[pattern.length])) {
+                updateLedFrame(new int[pattern.length]);
             }
-        });
+            if (DEBUG) Log.d(TAG, "Done playing animation | name: music | " + clock);
+        }
     }
 
-    private static void updateLedFrame(String[] pattern) {
-        updateLedFrame(Arrays.stream(pattern)
-                .mapToInt(Integer::parseInt)
-                .toArray());
+    private static int stepEnvelope(int envelope, int target, int attack, int decay) {
+        int delta = target - envelope;
+        return envelope + ((delta * (delta > 0 ? attack : decay)) >> 16);
+    }
+
+    // Share of the distance to the target covered in one tick, for a time constant of millis
+    private static int getEnvelopeCoefficient(int millis) {
+        if (millis <= 0) return 1 << 16;
+        return (int) Math.round((1 - Math.exp(-1000.0 / MUSIC_FPS / millis)) * (1 << 16));
     }
 
     private static void updateLedFrame(int[] pattern) {
-        float[] floatPattern = new float[pattern.length];
-        for (int i = 0; i < pattern.length; i++) {
-            floatPattern[i] = (float) pattern[i];
+        FrameCompositor frameCompositor = getCompositor();
+        synchronized (frameCompositor) {
+            baseLength = pattern.length;
+            if (overlayBase != null && pattern.length == overlayBase.length) {
+                System.arraycopy(pattern, 0, overlayBase, 0, pattern.length);
+            }
+            writeLedFrame(frameCompositor.compose(pattern));
         }
-        updateLedFrame(floatPattern);
     }
 
     private static void updateLedFrame(float[] pattern) {
-        //if (DEBUG) Log.d(TAG, "Updating pattern: " + pattern);
-        float maxBrightness = (float) Constants.getMaxBrightness();
-        int essentialLed = ResourceUtils.getInteger("glyph_settings_notifs_essential_led");
-        if (StatusManager.isEssentialLedActive()) {
-            if (pattern.length == 5) { // Phone (1) pattern
-                if (pattern[1] < (maxBrightness / 100 * 7)) {
-                    pattern[1] = maxBrightness / 100 * 7;
-                }
-            } else if (pattern.length == 33) { // Phone (2) pattern
-                if (pattern[2] < (maxBrightness / 100 * 7)) {
-                    pattern[2] = maxBrightness / 100 * 7;
+        FrameCompositor frameCompositor = getCompositor();
+        synchronized (frameCompositor) {
+            baseLength = pattern.length;
+            if (overlayBase != null && pattern.length == overlayBase.length) {
+                for (int i = 0; i < pattern.length; i++) {
+                    overlayBase[i] = Math.round(pattern[i]);
                 }
             }
+            writeLedFrame(frameCompositor.compose(pattern));
         }
-        for (int i = 0; i < pattern.length; i++) {
-            pattern[i] = pattern[i] / maxBrightness * Constants.getBrightness();
+    }
+
+    // Scales the composed frame, which belongs to the compositor, in place
+    private static void writeLedFrame(int[] frame) {
+        //if (DEBUG) Log.d(TAG, "Updating pattern: " + frame);
+        int[] table = Constants.getBrightnessTable();
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = Constants.scaleBrightness(table, frame[i]);
         }
-        FileUtils.writeFrameLed(pattern);
+        LedWriter.publish(frame);
     }
 
     private static void updateLedSingle(int led, String brightness) {
@@ -417,13 +893,12 @@ public final class AnimationManager {
 
     private static void updateLedSingle(int led, float brightness) {
         //if (DEBUG) Log.d(TAG, "Updating led | led: " + led + " | brightness: " + brightness);
-        float maxBrightness = (float) Constants.getMaxBrightness();
-        int essentialLed = ResourceUtils.getInteger("glyph_settings_notifs_essential_led");
         if (StatusManager.isEssentialLedActive()
-                && led == essentialLed
-                && brightness < (maxBrightness / 100 * 7)) {
-            brightness = maxBrightness / 100 * 7;
+                && led == getEssentialLed()
+                && brightness < getEssentialBrightness()) {
+            brightness = getEssentialBrightness();
         }
-        FileUtils.writeSingleLed(led, brightness / maxBrightness * Constants.getBrightness());
+        FileUtils.writeSingleLed(led,
+                Constants.scaleBrightness(Constants.getBrightnessTable(), Math.round(brightness)));
     }
 }
@@ -22,14 +22,12 @@ import android.util.Log;
 
 import androidx.preference.PreferenceManager;
 
-import com.android.internal.util.ArrayUtils;
-
 import java.util.HashSet;
 import java.util.Set;
 
 import co.aospa.glyph.Constants.Constants;
+import co.aospa.glyph.Constants.DeviceProfile;
 import co.aospa.glyph.Utils.FileUtils;
-import co.aospa.glyph.Utils.ResourceUtils;
 
 public final class SettingsManager {
 
@@ -54,9 +52,7 @@ public final class SettingsManager {
     }
 
     public static int getGlyphBrightness() {
-        int[] levels = Constants.getBrightnessLevels();
-        int brightnessSetting = getGlyphBrightnessSetting();
-        return levels[brightnessSetting - 1];
+        return DeviceProfile.get().getBrightnessLevel(getGlyphBrightnessSetting() - 1);
     }
 
     public static int getGlyphBrightnessSetting() {
@@ -88,7 +84,7 @@ public final class SettingsManager {
     public static String getGlyphCallAnimation() {
         return PreferenceManager.getDefaultSharedPreferences(context)
                 .getString(Constants.GLYPH_CALL_SUB_ANIMATIONS,
-                        ResourceUtils.getString("glyph_settings_call_animations_default"));
+                        DeviceProfile.get().getDefaultCallAnimation());
     }
 
     public static boolean isGlyphMusicVisualizerEnabled() {
@@ -114,7 +110,7 @@ public final class SettingsManager {
     public static String getGlyphNotifsAnimation() {
         return PreferenceManager.getDefaultSharedPreferences(context)
                 .getString(Constants.GLYPH_NOTIFS_SUB_ANIMATIONS,
-                        ResourceUtils.getString("glyph_settings_notifs_animations_default"));
+                        DeviceProfile.get().getDefaultNotifsAnimation());
     }
 
     public static boolean isGlyphNotifsAppEnabled(String app) {
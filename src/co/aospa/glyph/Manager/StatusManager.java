@@ -16,83 +16,165 @@
 
 package co.aospa.glyph.Manager;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Glyph status, kept in a single atomically updated word so that every
+ * transition is seen at once by all threads. Listeners are told about each
+ * transition, waiters are only woken up when something changed.
+ */
 public final class StatusManager {
 
     private static final String TAG = "GlyphStatusManager";
     private static final boolean DEBUG = true;
 
-    private static boolean allLedActive = false;
-    private static boolean animationActive = false;
-    private static boolean callLedActive = false;
-    private static boolean essentialLedActive = false;
-    private static boolean volumeLedActive = false;
-    private static int volumeLedLast = 0;
-    private static boolean volumeLedUpdate = false;
+    public interface StatusListener {
+        void onStatusChanged(int oldStatus, int newStatus);
+    }
+
+    public static final int ALL_LED_ACTIVE = 1 << 0;
+    public static final int ANIMATION_ACTIVE = 1 << 1;
+    public static final int CALL_LED_ACTIVE = 1 << 2;
+    public static final int ESSENTIAL_LED_ACTIVE = 1 << 3;
+    public static final int VOLUME_LED_ACTIVE = 1 << 4;
+    public static final int CALL_LED_ENABLED = 1 << 5;
+
+    private static final int VOLUME_LED_LAST_SHIFT = 16;
+    private static final int VOLUME_LED_LAST_MASK = 0xffff << VOLUME_LED_LAST_SHIFT;
 
-    private static boolean callLedEnabled = false;
+    private static final AtomicInteger status = new AtomicInteger(0);
+    private static final CopyOnWriteArrayList<StatusListener> listeners =
+            new CopyOnWriteArrayList<>();
+
+    private static final Object lock = new Object();
+    private static final AtomicInteger waiters = new AtomicInteger(0);
+
+    public static boolean hasFlag(int flag) {
+        return (status.get() & flag) != 0;
+    }
+
+    public static void addListener(StatusListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public static void removeListener(StatusListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Replaces the bits of mask with the ones of bits, returns whether the status changed
+    private static boolean update(int mask, int bits) {
+        int prev, next;
+        do {
+            prev = status.get();
+            next = (prev & ~mask) | (bits & mask);
+            if (prev == next) return false;
+        } while (!status.compareAndSet(prev, next));
+        dispatch(prev, next);
+        return true;
+    }
+
+    private static void setFlag(int flag, boolean value) {
+        update(flag, value ? flag : 0);
+    }
+
+    private static void dispatch(int prev, int next) {
+        for (StatusListener listener : listeners) {
+            listener.onStatusChanged(prev, next);
+        }
+        notifyChanged();
+    }
+
+    /**
+     * Blocks until {@code condition} holds, re-evaluating it whenever the status
+     * changes. Returns false if it still does not hold after {@code timeoutMs}
+     * milliseconds, a timeout of 0 waits indefinitely.
+     */
+    public static boolean await(BooleanSupplier condition, long timeoutMs)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        waiters.incrementAndGet();
+        try {
+            synchronized (lock) {
+                while (!condition.getAsBoolean()) {
+                    if (timeoutMs <= 0) {
+                        lock.wait();
+                        continue;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) return false;
+                    lock.wait(remaining);
+                }
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+        return true;
+    }
+
+    // Wakes up waiters, also used for state that lives outside of the status word
+    static void notifyChanged() {
+        if (waiters.get() == 0) return;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
 
     public static boolean isAnimationActive() {
-        return animationActive;
+        return hasFlag(ANIMATION_ACTIVE);
     }
 
     public static void setAnimationActive(boolean status) {
-        animationActive = status;
+        setFlag(ANIMATION_ACTIVE, status);
     }
 
     public static boolean isAllLedActive() {
-        return allLedActive;
+        return hasFlag(ALL_LED_ACTIVE);
     }
 
     public static void setAllLedsActive(boolean status) {
-        allLedActive = status;
+        setFlag(ALL_LED_ACTIVE, status);
     }
 
     public static boolean isCallLedActive() {
-        return callLedActive;
+        return hasFlag(CALL_LED_ACTIVE);
     }
 
     public static void setCallLedActive(boolean status) {
-        callLedActive = status;
+        setFlag(CALL_LED_ACTIVE, status);
     }
 
     public static boolean isEssentialLedActive() {
-        return essentialLedActive;
+        return hasFlag(ESSENTIAL_LED_ACTIVE);
     }
 
     public static void setEssentialLedActive(boolean status) {
-        essentialLedActive = status;
+        setFlag(ESSENTIAL_LED_ACTIVE, status);
     }
 
     public static boolean isVolumeLedActive() {
-        return volumeLedActive;
+        return hasFlag(VOLUME_LED_ACTIVE);
     }
 
     public static void setVolumeLedActive(boolean status) {
-        volumeLedActive = status;
+        setFlag(VOLUME_LED_ACTIVE, status);
     }
 
     public static int getVolumeLedLast() {
-        return volumeLedLast;
+        return (status.get() & VOLUME_LED_LAST_MASK) >>> VOLUME_LED_LAST_SHIFT;
     }
 
     public static void setVolumeLedLast(int last) {
-        volumeLedLast = last;
-    }
-
-    public static boolean isVolumeLedUpdate() {
-        return volumeLedUpdate;
-    }
-
-    public static void setVolumeLedUpdate(boolean status) {
-        volumeLedUpdate = status;
+        update(VOLUME_LED_LAST_MASK, last << VOLUME_LED_LAST_SHIFT);
     }
 
     public static boolean isCallLedEnabled() {
-        return callLedEnabled;
+        return hasFlag(CALL_LED_ENABLED);
     }
 
     public static void setCallLedEnabled(boolean status) {
-        callLedEnabled = status;
+        setFlag(CALL_LED_ENABLED, status);
     }
 
 }
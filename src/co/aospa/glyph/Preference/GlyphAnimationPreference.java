@@ -30,11 +30,12 @@ import android.widget.FrameLayout;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceViewHolder;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-
 import co.aospa.glyph.R;
+import co.aospa.glyph.Animation.CachedFrameSource;
+import co.aospa.glyph.Animation.FrameClock;
+import co.aospa.glyph.Animation.FrameSource;
 import co.aospa.glyph.Constants.Constants;
+import co.aospa.glyph.Constants.DeviceProfile;
 import co.aospa.glyph.Utils.ResourceUtils;
 
 public class GlyphAnimationPreference extends Preference {
@@ -45,8 +46,9 @@ public class GlyphAnimationPreference extends Preference {
     private Activity mActivity;
 
     private String animationName;
-    private boolean animationTerminated;
-    private boolean animationPaused = true;
+    private final Object animationLock = new Object();
+    private volatile boolean animationTerminated;
+    private volatile boolean animationPaused = true;
     private int animationTimeBetween = 0;
     private String[] animationSlugs;
     private ImageView[] animationImgs;
@@ -124,7 +126,7 @@ public class GlyphAnimationPreference extends Preference {
     }
 
     private void startAnimation() {
-        animationSlugs = ResourceUtils.getStringArray("glyph_settings_animations_slugs");
+        animationSlugs = DeviceProfile.get().getAnimationSlugs();
         animationImgs = new ImageView[animationSlugs.length];
         for (int i = 0; i < animationSlugs.length; i++) {
             animationImgs[i] = (ImageView) mRootView.findViewById(
@@ -157,56 +159,41 @@ public class GlyphAnimationPreference extends Preference {
         @Override
         public void run() {
             while (!animationTerminated) {
-                while (animationPaused) {}
+                // updateAnimation() and stopAnimation() interrupt us to wake up
+                synchronized (animationLock) {
+                    while (animationPaused && !animationTerminated) {
+                        try {
+                            animationLock.wait();
+                        } catch (InterruptedException e) { }
+                    }
+                }
+                if (animationTerminated) break;
                 if (DEBUG) Log.d(TAG, "Displaying animation | name: " + animationName);
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                        ResourceUtils.getAnimation(animationName)))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        long start = System.currentTimeMillis();
-                        line = line.replace(" ", "");
-                        line = line.endsWith(",") ? line.substring(0, line.length() - 1) : line;
-                        String[] split = line.split(",");
-                        if (Constants.getDevice().equals("phone1") && split.length == 5) { // Phone (1) pattern on Phone (1)
-                            mActivity.runOnUiThread(() -> {
-                                for (int i = 0; i < animationSlugs.length; i++) {
-                                    setGlyphsDrawable(animationImgs[i], Integer.parseInt(split[i]));
-                                }
-                            });
-                        } else if (Constants.getDevice().equals("phone2") && split.length == 5) { // Phone (1) pattern on Phone (2)
-                            mActivity.runOnUiThread(() -> {
-                                    setGlyphsDrawable(animationImgs[0], Integer.parseInt(split[0]));
-                                    setGlyphsDrawable(animationImgs[1], Integer.parseInt(split[0]));
-                                    setGlyphsDrawable(animationImgs[2], Integer.parseInt(split[1]));
-                                    setGlyphsDrawable(animationImgs[3], Integer.parseInt(split[2]));
-                                    setGlyphsDrawable(animationImgs[4], Integer.parseInt(split[2]));
-                                    setGlyphsDrawable(animationImgs[5], Integer.parseInt(split[2]));
-                                    setGlyphsDrawable(animationImgs[6], Integer.parseInt(split[2]));
-                                    setGlyphsDrawable(animationImgs[7], Integer.parseInt(split[2]));
-                                    setGlyphsDrawable(animationImgs[8], Integer.parseInt(split[2]));
-                                    setGlyphsDrawable(animationImgs[9], Integer.parseInt(split[3]));
-                                    setGlyphsDrawable(animationImgs[10], Integer.parseInt(split[4]));
-                            });
-                        } else if (Constants.getDevice().equals("phone2") && split.length == 33) { // Phone (2) pattern on Phone (2)
-                            mActivity.runOnUiThread(() -> {
-                                    setGlyphsDrawable(animationImgs[0], Integer.parseInt(split[0]));
-                                    setGlyphsDrawable(animationImgs[1], Integer.parseInt(split[1]));
-                                    setGlyphsDrawable(animationImgs[2], Integer.parseInt(split[2]));
-                                    setGlyphsDrawable(animationImgs[3], Integer.parseInt(split[3]));
-                                    setGlyphsDrawable(animationImgs[4], Integer.parseInt(split[19]));
-                                    setGlyphsDrawable(animationImgs[5], Integer.parseInt(split[20]));
-                                    setGlyphsDrawable(animationImgs[6], Integer.parseInt(split[21]));
-                                    setGlyphsDrawable(animationImgs[7], Integer.parseInt(split[22]));
-                                    setGlyphsDrawable(animationImgs[8], Integer.parseInt(split[23]));
-                                    setGlyphsDrawable(animationImgs[9], Integer.parseInt(split[25]));
-                                    setGlyphsDrawable(animationImgs[10], Integer.parseInt(split[24]));
-                            });
-                        } else {
-                            if (DEBUG) Log.d(TAG, "Animation line length mismatch | name: " + animationName + " | line: " + line);
-                            updateAnimation(false);
+                try (FrameSource source = new CachedFrameSource(
+                        ResourceUtils.getAnimationFrames(animationName))) {
+                    int length = source.getLedCount();
+                    int[] leds = DeviceProfile.get().getPreviewLeds(length);
+                    if (leds == null) {
+                        if (DEBUG) Log.d(TAG, "Animation length mismatch | name: " + animationName + " | length: " + length);
+                        updateAnimation(false);
+                        continue;
+                    }
+                    int[] pattern = new int[length];
+                    int position = 0;
+                    FrameClock clock = new FrameClock(source.getFps());
+                    for (int f = clock.start(); ; f = clock.awaitFrame(f + 1)) {
+                        if (!source.skipFrames(f - position, pattern) || !source.nextFrame(pattern)) break;
+                        position = f + 1;
+                        // The frame buffer is reused, hand the UI thread its own values
+                        int[] values = new int[leds.length];
+                        for (int i = 0; i < leds.length; i++) {
+                            values[i] = pattern[leds[i]];
                         }
-                        long delay = 16666L - (System.currentTimeMillis() - start);
-                        Thread.sleep(delay/1000);
+                        mActivity.runOnUiThread(() -> {
+                            for (int i = 0; i < values.length; i++) {
+                                setGlyphsDrawable(animationImgs[i], values[i]);
+                            }
+                        });
                     }
                     Thread.sleep(animationTimeBetween);
                 } catch (Exception e) {
@@ -228,7 +215,7 @@ public class GlyphAnimationPreference extends Preference {
             if (brightness <= 0) {
                 imageView.setAlpha(0.3f);
             } else {
-                float brightnessFactor = (float) (0.4 + 0.6 * (brightness / (double) Constants.getMaxBrightness()));
+                float brightnessFactor = (float) (0.4 + 0.6 * (Constants.applyGamma(brightness) / (double) Constants.getMaxBrightness()));
                 imageView.setAlpha(brightnessFactor);
             }
         }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Services;
+
+import java.util.Arrays;
+
+/**
+ * Spectral flux beat detector. Each band keeps the flux (how much its energy
+ * rose since the previous capture) of its last captures in a ring buffer,
+ * with running sums so the mean and variance cost O(1) per capture. A beat is
+ * a flux standing out from that history by more than a few deviations, and
+ * a band stays quiet for a moment after each beat.
+ */
+final class BeatDetector {
+
+    private final int bands;
+    private final int historySize;
+    private final int minHistory;
+    private final double sensitivitySquared;
+    private final double minFlux;
+    private final long refractoryMillis;
+
+    private final double[][] history;
+    private final double[] sums;
+    private final double[] squareSums;
+    private final double[] lastEnergies;
+    private final long[] lastBeats;
+    private int count = 0;
+    private int index = 0;
+
+    /**
+     * @param historySize captures the mean and variance are taken over
+     * @param minHistory captures needed before anything counts as a beat
+     * @param sensitivity deviations above the mean a flux has to reach
+     * @param minFlux flux below which nothing counts as a beat, whatever the history
+     * @param refractoryMillis time a band stays quiet after a beat
+     */
+    BeatDetector(int bands, int historySize, int minHistory, double sensitivity,
+            double minFlux, long refractoryMillis) {
+        this.bands = bands;
+        this.historySize = historySize;
+        this.minHistory = Math.min(minHistory, historySize);
+        this.sensitivitySquared = sensitivity * sensitivity;
+        this.minFlux = minFlux;
+        this.refractoryMillis = refractoryMillis;
+        history = new double[bands][historySize];
+        sums = new double[bands];
+        squareSums = new double[bands];
+        lastEnergies = new double[bands];
+        lastBeats = new long[bands];
+        reset();
+    }
+
+    /**
+     * Feeds the energy of a band for the current capture. Every band has to
+     * be fed once per capture, followed by {@link #advance()}.
+     */
+    boolean isBeat(int band, double energy, long nowMillis) {
+        double flux = Math.max(0, energy - lastEnergies[band]);
+        lastEnergies[band] = energy;
+
+        boolean beat = false;
+        if (count >= minHistory && flux > minFlux
+                && nowMillis - lastBeats[band] >= refractoryMillis) {
+            double mean = sums[band] / count;
+            double variance = Math.max(0, squareSums[band] / count - mean * mean);
+            double excess = flux - mean;
+            // flux > mean + sensitivity * deviation, without the square root
+            beat = excess > 0 && excess * excess > sensitivitySquared * variance;
+        }
+        if (beat) lastBeats[band] = nowMillis;
+
+        double old = history[band][index];
+        history[band][index] = flux;
+        sums[band] += flux - old;
+        squareSums[band] += flux * flux - old * old;
+        return beat;
+    }
+
+    /** Moves on to the next capture. */
+    void advance() {
+        if (count < historySize) count++;
+        index++;
+        if (index == historySize) {
+            index = 0;
+            // Running sums drift with rounding, start them afresh once per lap
+            for (int band = 0; band < bands; band++) {
+                double sum = 0;
+                double squareSum = 0;
+                for (double flux : history[band]) {
+                    sum += flux;
+                    squareSum += flux * flux;
+                }
+                sums[band] = sum;
+                squareSums[band] = squareSum;
+            }
+        }
+    }
+
+    /** Forgets the history, for when the audio stopped for a while. */
+    void reset() {
+        for (int band = 0; band < bands; band++) {
+            Arrays.fill(history[band], 0);
+            sums[band] = 0;
+            squareSums[band] = 0;
+            lastEnergies[band] = 0;
+            lastBeats[band] = Long.MIN_VALUE / 2;
+        }
+        count = 0;
+        index = 0;
+    }
+}
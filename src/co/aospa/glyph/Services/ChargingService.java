@@ -90,7 +90,7 @@ public class ChargingService extends Service {
     private void onPowerConnected() {
         if (DEBUG) Log.d(TAG, "Power connected");
         if (DEBUG) Log.d(TAG, "Battery level: " + getBatteryLevel());
-        playChargingAnimation(true);
+        playChargingAnimation();
         mSensorManager.registerListener(mSensorEventListener,
             mAccelerometerSensor, SensorManager.SENSOR_DELAY_NORMAL);
     }
@@ -100,8 +100,8 @@ public class ChargingService extends Service {
 	    mSensorManager.unregisterListener(mSensorEventListener);
     }
 
-    private void playChargingAnimation(boolean wait) {
-        AnimationManager.playCharging(getBatteryLevel(), wait);
+    private void playChargingAnimation() {
+        AnimationManager.playCharging(getBatteryLevel());
     }
 
     private final BroadcastReceiver mPowerMonitor = new BroadcastReceiver() {
@@ -124,7 +124,7 @@ public class ChargingService extends Service {
 		    float acceleration = (float) Math.sqrt(x * x + y * y + z * z);
 
 		    if (acceleration > ACCELEROMETER_THRESHOLD && z <= ZFACEDOWN_THRESHOLD && !mPowerManager.isInteractive() ) {
-			    playChargingAnimation(false);
+			    playChargingAnimation();
 		    }
 	    }
 
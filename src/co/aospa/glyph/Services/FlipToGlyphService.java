@@ -27,6 +27,7 @@ import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
 import android.util.Log;
 
+import co.aospa.glyph.Manager.AnimationArbiter.Priority;
 import co.aospa.glyph.Manager.AnimationManager;
 import co.aospa.glyph.Sensors.FlipToGlyphSensor;
 
@@ -79,7 +80,7 @@ public class FlipToGlyphService extends Service {
         if (DEBUG) Log.d(TAG, "Flipped: " + flipped);
         if (flipped) {
             mWakeLock.acquire(2500);
-            AnimationManager.playCsv("flip");
+            AnimationManager.playCsv("flip", Priority.FLIP);
             ringerMode = mAudioManager.getRingerModeInternal();
             mAudioManager.setRingerModeInternal(AudioManager.RINGER_MODE_SILENT);
         } else {
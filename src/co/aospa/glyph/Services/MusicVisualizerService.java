@@ -22,8 +22,12 @@ import android.content.Intent;
 import android.media.AudioManager;
 import android.media.audiofx.Visualizer;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.Arrays;
+
+import co.aospa.glyph.Constants.DeviceProfile;
 import co.aospa.glyph.Manager.AnimationManager;
 
 public class MusicVisualizerService extends Service {
@@ -35,11 +39,6 @@ public class MusicVisualizerService extends Service {
     private int bufferSize;
     private boolean isRecording = false;
 
-    private double mRunningSoundAvg[];             // Total sound energy in one second  (0=low, 1=mid low, 2=mid, 3=mid high, 4=high)
-    private double mCurrentAvgEnergyOneSec[];      // Average sound energy in one second (0=low, 1=mid low, 2=mid, 3=mid high, 4=high)
-    private int mNumberOfSamplesInOneSec;          // Number of samples in one second
-    private long mSystemTimeStartSec;              // System time at the start of a one second interval
-
     // Define the max value for a frequency band
     private static final int LOW_FREQUENCY = 200;
     private static final int MID_LOW_FREQUENCY = 500;
@@ -47,6 +46,41 @@ public class MusicVisualizerService extends Service {
     private static final int MID_HIGH_FREQUENCY = 5000;
     private static final int HIGH_FREQUENCY = 10000;
 
+    private static final int[] BAND_FREQUENCIES = {
+        LOW_FREQUENCY, MID_LOW_FREQUENCY, MID_FREQUENCY, MID_HIGH_FREQUENCY, HIGH_FREQUENCY
+    };
+    private static final String[] BAND_NAMES = { "low", "mid_low", "mid", "mid_high", "high" };
+
+    // The peak of each band falls by half in about 14 s at the capture rate
+    private static final double PEAK_DECAY = 0.995;
+    // Below this RMS magnitude a band counts as silent
+    private static final double PEAK_FLOOR = 1.0;
+
+    private final double[] mBandPeaks = new double[BAND_FREQUENCIES.length];
+
+    // About 3 s of history at the capture rate, beats after half a second of it
+    private static final int BEAT_HISTORY = 32;
+    private static final int BEAT_MIN_HISTORY = 5;
+    private static final double BEAT_SENSITIVITY = 1.5;
+    private static final double BEAT_MIN_FLUX = 1.0;
+    private static final long BEAT_REFRACTORY_MILLIS = 150;
+    // Audio stopped for this long starts a fresh history
+    private static final long BEAT_RESET_MILLIS = 2000;
+
+    private final BeatDetector mBeatDetector = new BeatDetector(BAND_FREQUENCIES.length,
+            BEAT_HISTORY, BEAT_MIN_HISTORY, BEAT_SENSITIVITY, BEAT_MIN_FLUX, BEAT_REFRACTORY_MILLIS);
+    private long mLastCaptureMillis = 0;
+
+    // Spectrum mode, the waveform also goes through our own FFT
+    private boolean mSpectrum;
+    private SpectrumAnalyzer mSpectrumAnalyzer;
+    private int[] mSpectrumLevels;
+
+    // FFT byte index where each band ends, for the capture it was computed for
+    private final int[] mBandEnds = new int[BAND_FREQUENCIES.length];
+    private int mBandCaptureSize = -1;
+    private int mBandSamplingRate = -1;
+
     @Override
     public void onCreate() {
         if (DEBUG) Log.d(TAG, "Creating service");
@@ -60,11 +94,21 @@ public class MusicVisualizerService extends Service {
         bufferSize = Visualizer.getCaptureSizeRange()[1];
         mVisualizer.setCaptureSize(bufferSize);
 
+        DeviceProfile profile = DeviceProfile.get();
+        mSpectrum = profile.hasMusicSpectrum();
+        mSpectrumLevels = new int[Math.min(profile.getMusicSpectrumLeds().length,
+                AnimationManager.MUSIC_SPECTRUM_MAX_LEDS)];
+        if (DEBUG) Log.d(TAG, "Capturing FFT for the bands" + (mSpectrum ? " and waveform for the spectrum" : ""));
+
+        // Bands and beats always come from the FFT, the spectrum only adds the waveform
         mVisualizer.setDataCaptureListener(
             new Visualizer.OnDataCaptureListener() {
                 @Override
                 public void onWaveFormDataCapture(
                         Visualizer visualizer, byte[] waveform, int samplingRate) {
+                    if (mAudioManager.isMusicActive()) {
+                        processAudioWaveform(waveform, samplingRate);
+                    }
                 }
 
                 @Override
@@ -72,26 +116,13 @@ public class MusicVisualizerService extends Service {
                         Visualizer visualizer, byte[] fft, int samplingRate) {
                     if (mAudioManager.isMusicActive()) {
                         if (DEBUG) Log.d(TAG, "Music is active");
-                        processAudioFFT(fft);
+                        processAudioFFT(fft, samplingRate);
                     }
                 }
-            }, Visualizer.getMaxCaptureRate() / 2, false, true
+            }, Visualizer.getMaxCaptureRate() / 2, mSpectrum, true
         );
 
         mVisualizer.setEnabled(true);
-
-        // Initialize instance variables
-        mRunningSoundAvg = new double[5];
-        mCurrentAvgEnergyOneSec = new double[5];
-        mCurrentAvgEnergyOneSec[0] = -1;
-        mCurrentAvgEnergyOneSec[1] = -1;
-        mCurrentAvgEnergyOneSec[2] = -1;
-        mCurrentAvgEnergyOneSec[3] = -1;
-        mCurrentAvgEnergyOneSec[4] = -1;
-
-        // Set the start time for the current one second interval
-        mSystemTimeStartSec = System.currentTimeMillis();
-
     }
 
     @Override
@@ -113,159 +144,80 @@ public class MusicVisualizerService extends Service {
         return null;
     }
 
-    private void processAudioFFT(byte[] audioBytes) {
-        // The first byte is the DC component of the FFT result (real only)
-        int energySum = Math.abs(audioBytes[0]);
-
-        // Calculate the average instantaneous energy of the low frequency band
-        int k = 2;
-        double captureSize = mVisualizer.getCaptureSize() / 2.0;
-        int sampleRate = mVisualizer.getSamplingRate() / 2000;
-        double nextFrequency = (k / 2.0 * sampleRate) / captureSize;
-
-        // Sum the energy in the low frequency band
-        while (nextFrequency < LOW_FREQUENCY) {
-            // Calculate the energy of the current frequency
-            energySum += Math.sqrt(audioBytes[k] * audioBytes[k] + audioBytes[k + 1] * audioBytes[k + 1]);
-
-            // Increment the frequency index
-            k += 2;
-            nextFrequency = (k / 2.0 * sampleRate) / captureSize;
-        }
-
-        // Calculate the average energy in the low frequency band
-        double sampleAvgAudioEnergy = energySum / (k / 2.0);
-
-        // Accumulate the low frequency band energy over time
-        mRunningSoundAvg[0] += sampleAvgAudioEnergy;
-
-        // Check for a beat in the low frequency band
-        // A beat occurs when the average sound energy of a sample is greater than
-        // the average sound energy of a one second part of a song
-        // Also make sure the mCurrentAvgEnergy has been set, otherwise its -1 before its first pass
-        if( (sampleAvgAudioEnergy >  mCurrentAvgEnergyOneSec[0]) && (mCurrentAvgEnergyOneSec[0] > 0) ) {
-            if (DEBUG) Log.d(TAG, "Low frequency band beat detected");
-            AnimationManager.playMusic("low");
-        }
-
-        energySum = 0;
-
-        // Sum the energy in the mid-low frequency band
-        while (nextFrequency < MID_LOW_FREQUENCY) {
-            // Calculate the energy of the current frequency
-            energySum += Math.sqrt(audioBytes[k] * audioBytes[k] + audioBytes[k + 1] * audioBytes[k + 1]);
-
-            // Increment the frequency index
-            k += 2;
-            nextFrequency = (k / 2.0 * sampleRate) / captureSize;
-        }
-
-        // Calculate the average energy in the mid-low frequency band
-        sampleAvgAudioEnergy = energySum / (k / 2.0);
-
-        // Accumulate the mid low frequency band energy over time
-        mRunningSoundAvg[1] += sampleAvgAudioEnergy;
-
-        // Check for a beat in the mid-low frequency band
-        if((sampleAvgAudioEnergy >  mCurrentAvgEnergyOneSec[1]) && (mCurrentAvgEnergyOneSec[1] > 0)) {
-            if (DEBUG) Log.d(TAG, "Mid-low frequency band beat detected");
-            AnimationManager.playMusic("mid_low");
+    private void processAudioWaveform(byte[] waveform, int samplingRate) {
+        // Only allocates when the capture size changes
+        if (mSpectrumAnalyzer == null || mSpectrumAnalyzer.getSize() != waveform.length) {
+            mSpectrumAnalyzer = new SpectrumAnalyzer(waveform.length, mSpectrumLevels.length,
+                    AnimationManager.MUSIC_LEVEL_MAX);
         }
+        mSpectrumAnalyzer.analyze(waveform, samplingRate, mSpectrumLevels);
+        AnimationManager.setMusicSpectrum(mSpectrumLevels);
+    }
 
-        energySum = 0;
-
-        // Sum the energy in the mid frequency band
-        while (nextFrequency < MID_FREQUENCY) {
-            // Calculate the energy of the current frequency
-            energySum += Math.sqrt(audioBytes[k] * audioBytes[k] + audioBytes[k + 1] * audioBytes[k + 1]);
-
-            // Increment the frequency index
-            k += 2;
-            nextFrequency = (k / 2.0 * sampleRate) / captureSize;
-        }
-
-        // Calculate the average energy in the mid frequency band
-        sampleAvgAudioEnergy = energySum / (k / 2.0);
-
-        // Accumulate the mid frequency band energy over time
-        mRunningSoundAvg[2] += sampleAvgAudioEnergy;
-
-        // Check for a beat in the mid frequency band
-        if( (sampleAvgAudioEnergy >  mCurrentAvgEnergyOneSec[2]) && (mCurrentAvgEnergyOneSec[2] > 0) ) {
-            if (DEBUG) Log.d(TAG, "Mid frequency band beat detected");
-            AnimationManager.playMusic("mid");
-        }
-
-        energySum = 0;
-
-        // Sum the energy in the mid-high frequency band
-        while (nextFrequency < MID_HIGH_FREQUENCY) {
-            // Calculate the energy of the current frequency
-            energySum += Math.sqrt(audioBytes[k] * audioBytes[k] + audioBytes[k + 1] * audioBytes[k + 1]);
-
-            // Increment the frequency index
-            k += 2;
-            nextFrequency = (k / 2.0 * sampleRate) / captureSize;
-        }
-
-        // Calculate the average energy in the mid-high frequency band
-        sampleAvgAudioEnergy = energySum / (k / 2.0);
-
-        // Accumulate the mid high-frequency band energy over time
-        mRunningSoundAvg[3] += sampleAvgAudioEnergy;
-
-        // Check for a beat in the mid-high frequency band
-        if( (sampleAvgAudioEnergy >  mCurrentAvgEnergyOneSec[3]) && (mCurrentAvgEnergyOneSec[3] > 0) ) {
-            if (DEBUG) Log.d(TAG, "Mid-high frequency band beat detected");
-            AnimationManager.playMusic("mid_high");
-        }
-
-        // Second Byte: Only imaginary part of the last frequency (include in highs)
-        energySum = Math.abs(audioBytes[1]);
-
-        // Sum the energy in the high frequency band
-        while (nextFrequency < HIGH_FREQUENCY) {
-            // Calculate the energy of the current frequency
-            energySum += Math.sqrt(audioBytes[k] * audioBytes[k] + audioBytes[k + 1] * audioBytes[k + 1]);
+    // Band boundaries only change with the capture size and the sampling rate
+    private void updateBandTable(int captureSize, int samplingRate) {
+        if (captureSize == mBandCaptureSize && samplingRate == mBandSamplingRate) return;
 
-            // Increment the frequency index
-            k += 2;
-            nextFrequency = (k / 2.0 * sampleRate) / captureSize;
+        // Byte k holds bin k / 2, at k / 2 * samplingRate / captureSize Hz (samplingRate is in mHz)
+        long nyquist = samplingRate / 2000;
+        int k = 2;
+        for (int band = 0; band < BAND_FREQUENCIES.length; band++) {
+            while (k < captureSize - 1 && k * nyquist < (long) BAND_FREQUENCIES[band] * captureSize) {
+                k += 2;
+            }
+            mBandEnds[band] = k;
         }
+        mBandCaptureSize = captureSize;
+        mBandSamplingRate = samplingRate;
+        if (DEBUG) Log.d(TAG, "Updated band table | capture size: " + captureSize
+                + " | sampling rate: " + samplingRate + " | band ends: " + Arrays.toString(mBandEnds));
+    }
 
-        // Calculate the average energy in the high frequency band
-        sampleAvgAudioEnergy = energySum / (k / 2.0);
-
-        // Accumulate the high frequency band energy over time
-        mRunningSoundAvg[4] += sampleAvgAudioEnergy;
+    private void processAudioFFT(byte[] audioBytes, int samplingRate) {
+        updateBandTable(audioBytes.length, samplingRate);
 
-        // Check for a beat in the high frequency band
-        if( (sampleAvgAudioEnergy >  mCurrentAvgEnergyOneSec[4]) && (mCurrentAvgEnergyOneSec[4] > 0) ) {
-            if (DEBUG) Log.d(TAG, "High frequency band beat detected");
-            AnimationManager.playMusic("high");
-        }
+        long now = SystemClock.uptimeMillis();
+        if (now - mLastCaptureMillis > BEAT_RESET_MILLIS) mBeatDetector.reset();
+        mLastCaptureMillis = now;
 
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - mSystemTimeStartSec >= 1000) {
-            mCurrentAvgEnergyOneSec[0] = mRunningSoundAvg[0] / mNumberOfSamplesInOneSec;
-            mCurrentAvgEnergyOneSec[1] = mRunningSoundAvg[1] / mNumberOfSamplesInOneSec;
-            mCurrentAvgEnergyOneSec[2] = mRunningSoundAvg[2] / mNumberOfSamplesInOneSec;
-            mCurrentAvgEnergyOneSec[3] = mRunningSoundAvg[3] / mNumberOfSamplesInOneSec;
-            mCurrentAvgEnergyOneSec[4] = mRunningSoundAvg[4] / mNumberOfSamplesInOneSec;
-
-
-            // Reset the running energy sum and sample count
-            mRunningSoundAvg[0] = 0;
-            mRunningSoundAvg[1] = 0;
-            mRunningSoundAvg[2] = 0;
-            mRunningSoundAvg[3] = 0;
-            mRunningSoundAvg[4] = 0;
-            mNumberOfSamplesInOneSec = 0;
-
-            // Update the start time for the next one-second interval
-            mSystemTimeStartSec = currentTime;
+        int k = 2;
+        for (int band = 0; band < BAND_FREQUENCIES.length; band++) {
+            int start = k;
+            int end = mBandEnds[band];
+            int energySum = 0;
+            int bins = (end - start) / 2;
+            if (band == 0) {
+                // The first byte is the DC component of the FFT result (real only)
+                energySum = audioBytes[0] * audioBytes[0];
+                bins++;
+            } else if (band == BAND_FREQUENCIES.length - 1) {
+                // Second byte: only the real part of the last frequency (include in highs)
+                energySum = audioBytes[1] * audioBytes[1];
+                bins++;
+            }
+
+            // Squared magnitudes add up in integers, at most 2 * 128^2 per bin
+            for (; k < end; k += 2) {
+                int re = audioBytes[k];
+                int im = audioBytes[k + 1];
+                energySum += re * re + im * im;
+            }
+
+            // Average energy of the band, as an RMS magnitude
+            double sampleAvgAudioEnergy = bins > 0 ? Math.sqrt((double) energySum / bins) : 0;
+
+            // Band level relative to its recent peak, for the envelopes
+            mBandPeaks[band] = Math.max(sampleAvgAudioEnergy, mBandPeaks[band] * PEAK_DECAY);
+            AnimationManager.setMusicLevel(band, mBandPeaks[band] > PEAK_FLOOR
+                    ? (int) (sampleAvgAudioEnergy / mBandPeaks[band] * AnimationManager.MUSIC_LEVEL_MAX)
+                    : 0);
+
+            // Check for a beat in the band: a jump in energy well above the recent ones
+            if (mBeatDetector.isBeat(band, sampleAvgAudioEnergy, now)) {
+                if (DEBUG) Log.d(TAG, "Beat detected | band: " + BAND_NAMES[band]);
+                AnimationManager.playMusic(band);
+            }
         }
-        mNumberOfSamplesInOneSec++;
-
+        mBeatDetector.advance();
     }
 }
@@ -23,20 +23,46 @@ import android.os.FileObserver;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.UEventObserver;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
 import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.InterruptedIOException;
+
 import co.aospa.glyph.Constants.Constants;
+import co.aospa.glyph.Constants.DeviceProfile;
+import co.aospa.glyph.Manager.AnimationArbiter.Priority;
 import co.aospa.glyph.Manager.AnimationManager;
 import co.aospa.glyph.Utils.FileUtils;
-import co.aospa.glyph.Utils.ResourceUtils;
 
 public class PowershareService extends Service {
 
     private static final String TAG = "GlyphPowershareService";
     private static final boolean DEBUG = true;
 
-    private static final String POWERSHARE_ACTIVE = ResourceUtils.getString("glyph_settings_paths_powershare_active_absolute");
-    private static final String POWERSHARE_ENABLED = ResourceUtils.getString("glyph_settings_paths_powershare_enabled_absolute");
+    private static final String POWERSHARE_ACTIVE = DeviceProfile.get().getPowershareActivePath();
+    private static final String POWERSHARE_ENABLED = DeviceProfile.get().getPowershareEnabledPath();
+
+    private static final String POWER_SUPPLY_UEVENT = "SUBSYSTEM=power_supply";
+    private static final byte[] WAKE_BYTE = { 1 };
+
+    // Polling rate while events are not known to work, as it always was
+    private static final int POLL_MILLIS = 500;
+    // Polls that find nothing new back off up to this
+    private static final int POLL_MAX_MILLIS = 4000;
+    // Reads the node now and then anyway in case an event is missed
+    private static final int EVENT_CHECK_MILLIS = 60000;
+
+    // What ended a wait for the active node
+    private static final int WAIT_TIMEOUT = 0;
+    private static final int WAIT_WAKE = 1;
+    private static final int WAIT_NODE = 2;
+    // Read when watching starts, says nothing about the events
+    private static final int WAIT_RESUME = 3;
 
     private PowershareActiveObserver mPowershareActiveObserver;
     private PowerManager mPowerManager;
@@ -104,14 +130,50 @@ public class PowershareService extends Service {
         }
     };
 
+    /**
+     * Waits on the active node instead of polling it. Drivers that call
+     * sysfs_notify() wake the poll() directly, power supply uevents cover
+     * the ones that only report the change to the power supply class. Until
+     * either of them is seen to deliver a change, the node is also polled,
+     * starting at the old rate and backing off while nothing changes. A change
+     * only caught by polling goes back to that.
+     */
     private class PowershareActiveObserver extends Thread {
 
         private boolean lastState = false;
-        private boolean pause = true;
-        private boolean ended = false;
+        private volatile boolean pause = true;
+        private volatile boolean ended = false;
+
+        // Whether events were seen to deliver a change, kept across pauses
+        private boolean eventsTrusted = false;
+        private int pollMillis = POLL_MILLIS;
+
+        private FileDescriptor mActiveFd;
+        private FileDescriptor[] mWakePipe;
+        private final byte[] mBuffer = new byte[16];
+        private final StructPollfd mActivePollFd = new StructPollfd();
+        private final StructPollfd mWakePollFd = new StructPollfd();
+        private final StructPollfd[] mPollFds = { mActivePollFd, mWakePollFd };
+        private final StructPollfd[] mWakePollFds = { mWakePollFd };
 
         private Object mPowershareActiveObserverLock = new Object();
 
+        private final UEventObserver mUEventObserver = new UEventObserver() {
+            @Override
+            public void onUEvent(UEventObserver.UEvent event) {
+                wake();
+            }
+        };
+
+        PowershareActiveObserver() {
+            super("GlyphPowershareObserver");
+            try {
+                mWakePipe = Os.pipe();
+            } catch (ErrnoException e) {
+                Log.e(TAG, "Could not create wake pipe", e);
+            }
+        }
+
         public void startWatching() {
             if (DEBUG) Log.e(TAG, "PowershareActiveObserver: startWatching");
             if (super.isAlive()) return;
@@ -121,6 +183,7 @@ public class PowershareService extends Service {
         public void continueWatching() {
             if (DEBUG) Log.e(TAG, "PowershareActiveObserver: continueWatching");
             if (!pause) return;
+            mUEventObserver.startObserving(POWER_SUPPLY_UEVENT);
             pause = false;
             synchronized (mPowershareActiveObserverLock) {
                 mPowershareActiveObserverLock.notify();
@@ -130,25 +193,134 @@ public class PowershareService extends Service {
         public void pauseWatching() {
             if (DEBUG) Log.e(TAG, "PowershareActiveObserver: pauseWatching");
             if (pause) return;
+            mUEventObserver.stopObserving();
             lastState = false;
             pause = true;
+            wake();
         }
 
         public void stopWatching() {
             if (DEBUG) Log.e(TAG, "PowershareActiveObserver: stopWatching");
-            if (pause) this.continueWatching();
             ended = true;
+            mUEventObserver.stopObserving();
+            synchronized (mPowershareActiveObserverLock) {
+                mPowershareActiveObserverLock.notify();
+            }
+            wake();
+        }
+
+        // Interrupts a pending poll()
+        private void wake() {
+            if (mWakePipe == null) return;
+            try {
+                Os.write(mWakePipe[1], WAKE_BYTE, 0, 1);
+            } catch (ErrnoException | InterruptedIOException e) {
+                Log.w(TAG, "Could not wake observer", e);
+            }
+        }
+
+        private int readActive() {
+            try {
+                if (mActiveFd == null) {
+                    mActiveFd = Os.open(POWERSHARE_ACTIVE, OsConstants.O_RDONLY | OsConstants.O_CLOEXEC, 0);
+                }
+                // Reading from the start also re-arms sysfs_notify()
+                int length = Os.pread(mActiveFd, mBuffer, 0, mBuffer.length, 0);
+                int value = 0;
+                for (int i = 0; i < length && mBuffer[i] >= '0' && mBuffer[i] <= '9'; i++) {
+                    value = value * 10 + mBuffer[i] - '0';
+                }
+                return value;
+            } catch (ErrnoException | InterruptedIOException e) {
+                Log.e(TAG, "Could not read " + POWERSHARE_ACTIVE, e);
+                closeActive();
+                return -1;
+            }
         }
 
-        private void updatePowershareState() {
-            if (DEBUG) Log.d(TAG, "updatePowershareState: " + FileUtils.readLineInt(POWERSHARE_ACTIVE));
-            if (FileUtils.readLineInt(POWERSHARE_ACTIVE) == 1) {
-                if (lastState) return;
-                lastState = true;
+        private void closeActive() {
+            if (mActiveFd == null) return;
+            try {
+                Os.close(mActiveFd);
+            } catch (ErrnoException e) {
+                // Ignored, not much we can do anyway
+            }
+            mActiveFd = null;
+        }
+
+        // Returns whether the node, a uevent or a pause ended the wait, see WAIT_*
+        private int waitForEvent(int timeoutMillis) {
+            if (mWakePipe == null) {
+                try {
+                    Thread.sleep(timeoutMillis);
+                } catch (InterruptedException e) { }
+                return WAIT_TIMEOUT;
+            }
+
+            mWakePollFd.fd = mWakePipe[0];
+            mWakePollFd.events = (short) OsConstants.POLLIN;
+            mWakePollFd.revents = 0;
+            mActivePollFd.fd = mActiveFd;
+            mActivePollFd.events = (short) (OsConstants.POLLPRI | OsConstants.POLLERR);
+            mActivePollFd.revents = 0;
+            StructPollfd[] fds = mActiveFd != null ? mPollFds : mWakePollFds;
+            try {
+                if (Os.poll(fds, timeoutMillis) == 0) return WAIT_TIMEOUT;
+            } catch (ErrnoException e) {
+                if (e.errno != OsConstants.EINTR) Log.e(TAG, "Could not poll " + POWERSHARE_ACTIVE, e);
+                return WAIT_TIMEOUT;
+            }
+            if ((mWakePollFd.revents & OsConstants.POLLIN) != 0) {
+                try {
+                    Os.read(mWakePipe[0], mBuffer, 0, mBuffer.length);
+                } catch (ErrnoException | InterruptedIOException e) {
+                    // Ignored, the pipe is only there to wake us up
+                }
+            }
+            return (mActivePollFd.revents & OsConstants.POLLPRI) != 0 ? WAIT_NODE : WAIT_WAKE;
+        }
+
+        // Drops wake ups left over from before a pause, they would pass for a uevent
+        private void drainWakePipe() {
+            if (mWakePipe == null) return;
+            mWakePollFd.fd = mWakePipe[0];
+            mWakePollFd.events = (short) OsConstants.POLLIN;
+            try {
+                while (true) {
+                    mWakePollFd.revents = 0;
+                    if (Os.poll(mWakePollFds, 0) == 0
+                            || (mWakePollFd.revents & OsConstants.POLLIN) == 0) {
+                        return;
+                    }
+                    Os.read(mWakePipe[0], mBuffer, 0, mBuffer.length);
+                }
+            } catch (ErrnoException | InterruptedIOException e) {
+                // Ignored, at worst the node is read once more
+            }
+        }
+
+        private void updatePowershareState(int wait) {
+            int value = readActive();
+            if (DEBUG) Log.d(TAG, "updatePowershareState: " + value + " | wait: " + wait);
+            boolean state = value == 1;
+            if (state != lastState) {
+                if (wait == WAIT_TIMEOUT) {
+                    if (eventsTrusted && DEBUG) Log.d(TAG, "Change was missed by events, polling again");
+                    eventsTrusted = false;
+                } else if (wait != WAIT_RESUME && !eventsTrusted) {
+                    if (DEBUG) Log.d(TAG, "Change was delivered by events, no longer polling");
+                    eventsTrusted = true;
+                }
+                pollMillis = POLL_MILLIS;
+            } else if (wait == WAIT_TIMEOUT) {
+                // Nothing changed since the last poll, the next one can wait longer
+                pollMillis = Math.min(pollMillis * 2, POLL_MAX_MILLIS);
+            }
+            if (state == lastState) return;
+            lastState = state;
+            if (state) {
                 mWakeLock.acquire(2500);
-                AnimationManager.playCsv("powershare", true);
-            } else {
-                lastState = false;
+                AnimationManager.playCsv("powershare", Priority.POWERSHARE);
             }
         }
 
@@ -157,17 +329,30 @@ public class PowershareService extends Service {
             if (DEBUG) Log.e(TAG, "PowershareActiveObserver: run");
             while (!ended) {
                 synchronized (mPowershareActiveObserverLock) {
-                    if (pause) {
+                    while (pause && !ended) {
                         try {
                             if (DEBUG) Log.d(TAG, "mPowershareActiveObserverLock.wait()");
                             mPowershareActiveObserverLock.wait();
                         } catch (InterruptedException e) { }
                     }
                 }
-                updatePowershareState();
+                if (ended) break;
+                drainWakePipe();
+                updatePowershareState(WAIT_RESUME);
+                while (!pause && !ended) {
+                    int wait = waitForEvent(eventsTrusted ? EVENT_CHECK_MILLIS : pollMillis);
+                    if (pause || ended) break;
+                    updatePowershareState(wait);
+                }
+            }
+            closeActive();
+            if (mWakePipe != null) {
                 try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) { }
+                    Os.close(mWakePipe[0]);
+                    Os.close(mWakePipe[1]);
+                } catch (ErrnoException e) {
+                    // Ignored, not much we can do anyway
+                }
             }
         }
     }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Services;
+
+/**
+ * Turns a waveform capture into one level per LED: Hann window, in place
+ * radix-2 FFT and log spaced bins, from the lows to the highs. Tables and
+ * buffers are built once per capture size, analyzing does not allocate.
+ */
+final class SpectrumAnalyzer {
+
+    // Lowest and highest frequencies shown, the highs are capped by the Nyquist frequency
+    private static final double MIN_FREQUENCY = 40;
+    private static final double MAX_FREQUENCY = 16000;
+
+    // Levels span this range below the recent peak, which falls by 1 dB/s at the capture rate
+    private static final float RANGE_DB = 45f;
+    private static final float PEAK_DECAY_DB = 0.1f;
+    // The peak never falls under this, about 50 dB under a full scale sine, so silence stays dark
+    private static final float PEAK_FLOOR_DB = 40f;
+    // Music loses energy towards the highs, lifting them per octave keeps every LED busy
+    private static final float TILT_DB_PER_OCTAVE = 3f;
+
+    private final int size;
+    private final int levelMax;
+    private final float[] window;
+    private final float[] cos;
+    private final float[] sin;
+    private final int[] reversed;
+    private final float[] re;
+    private final float[] im;
+
+    // First and last + 1 FFT bin of each LED, for the sampling rate they were computed for
+    private final int[] binStarts;
+    private final int[] binEnds;
+    private final float[] tilts;
+    private final float[] decibels;
+    private float peakDb = PEAK_FLOOR_DB;
+    private int samplingRate = -1;
+
+    /**
+     * @param size capture size, a power of two
+     * @param leds number of levels to produce
+     * @param levelMax level of an LED at its recent peak
+     */
+    SpectrumAnalyzer(int size, int leds, int levelMax) {
+        if (size < 2 || (size & (size - 1)) != 0) {
+            throw new IllegalArgumentException("Capture size is not a power of two: " + size);
+        }
+        this.size = size;
+        this.levelMax = levelMax;
+
+        window = new float[size];
+        for (int n = 0; n < size; n++) {
+            window[n] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * n / (size - 1)));
+        }
+        cos = new float[size / 2];
+        sin = new float[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            cos[k] = (float) Math.cos(2 * Math.PI * k / size);
+            sin[k] = (float) -Math.sin(2 * Math.PI * k / size);
+        }
+        int bits = Integer.numberOfTrailingZeros(size);
+        reversed = new int[size];
+        for (int n = 0; n < size; n++) {
+            reversed[n] = Integer.reverse(n) >>> (32 - bits);
+        }
+        re = new float[size];
+        im = new float[size];
+
+        binStarts = new int[leds];
+        binEnds = new int[leds];
+        tilts = new float[leds];
+        decibels = new float[leds];
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Analyzes an 8-bit unsigned waveform of the capture size into
+     * {@code levels}, from 0 to the max level.
+     *
+     * @param samplingRate in mHz, as the visualizer reports it
+     */
+    void analyze(byte[] waveform, int samplingRate, int[] levels) {
+        if (samplingRate != this.samplingRate) updateBins(samplingRate);
+
+        // Load the windowed samples in bit reversed order, the FFT then runs in place
+        for (int n = 0; n < size; n++) {
+            int i = reversed[n];
+            re[i] = ((waveform[n] & 0xff) - 128) * window[n];
+            im[i] = 0;
+        }
+        for (int half = 1, step = size / 2; half < size; half <<= 1, step >>= 1) {
+            for (int start = 0; start < size; start += half << 1) {
+                for (int k = 0, t = 0; k < half; k++, t += step) {
+                    int a = start + k;
+                    int b = a + half;
+                    float tr = re[b] * cos[t] - im[b] * sin[t];
+                    float ti = re[b] * sin[t] + im[b] * cos[t];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+
+        // Loudest bin of each LED, in dB so quiet parts still show
+        float maxDb = PEAK_FLOOR_DB;
+        for (int led = 0; led < binStarts.length; led++) {
+            float power = 1;
+            for (int bin = binStarts[led]; bin < binEnds[led]; bin++) {
+                power = Math.max(power, re[bin] * re[bin] + im[bin] * im[bin]);
+            }
+            decibels[led] = (float) (10 * Math.log10(power)) + tilts[led];
+            maxDb = Math.max(maxDb, decibels[led]);
+        }
+        peakDb = Math.max(maxDb, peakDb - PEAK_DECAY_DB);
+        float floorDb = peakDb - RANGE_DB;
+        for (int led = 0; led < binStarts.length; led++) {
+            float level = (decibels[led] - floorDb) / RANGE_DB;
+            levels[led] = (int) (Math.max(0, Math.min(level, 1)) * levelMax);
+        }
+    }
+
+    // Log spaced edges, every LED gets at least one bin of its own when there are enough
+    private void updateBins(int samplingRate) {
+        this.samplingRate = samplingRate;
+        int leds = binStarts.length;
+        double rate = samplingRate / 1000.0;
+        double maxFrequency = Math.min(MAX_FREQUENCY, rate / 2);
+        double ratio = maxFrequency / MIN_FREQUENCY;
+        int lastBin = size / 2;
+        int start = Math.max(1, (int) Math.round(MIN_FREQUENCY * size / rate));
+        for (int led = 0; led < leds; led++) {
+            double edge = MIN_FREQUENCY * Math.pow(ratio, (led + 1) / (double) leds);
+            int end = (int) Math.round(edge * size / rate);
+            end = Math.min(Math.max(end, start + 1), lastBin);
+            binStarts[led] = Math.min(start, end - 1);
+            binEnds[led] = end;
+            double center = (binStarts[led] + end) / 2.0 * rate / size;
+            tilts[led] = (float) (TILT_DB_PER_OCTAVE * Math.log(center / MIN_FREQUENCY) / Math.log(2));
+            start = end;
+        }
+        peakDb = PEAK_FLOOR_DB;
+    }
+}
@@ -95,10 +95,10 @@ public class VolumeLevelService extends Service {
 
             if(delta > 0) {
                 if (DEBUG) Log.d(TAG, "Decreased: " + (int) (Math.floor(100D / maxVolume * currentVolume)));
-                AnimationManager.playVolume((int) (Math.floor(100D / maxVolume * currentVolume)), false);
+                AnimationManager.playVolume((int) (Math.floor(100D / maxVolume * currentVolume)));
             } else if(delta < 0) {
                 if (DEBUG) Log.d(TAG, "Increased: " + (int) (Math.floor(100D / maxVolume * currentVolume)));
-                AnimationManager.playVolume((int) (Math.floor(100D / maxVolume * currentVolume)), false);
+                AnimationManager.playVolume((int) (Math.floor(100D / maxVolume * currentVolume)));
             }
             if (delta != 0) previousVolume=currentVolume;
         }
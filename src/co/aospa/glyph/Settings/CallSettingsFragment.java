@@ -33,6 +33,7 @@ import com.android.settingslib.widget.MainSwitchPreference;
 
 import co.aospa.glyph.R;
 import co.aospa.glyph.Constants.Constants;
+import co.aospa.glyph.Constants.DeviceProfile;
 import co.aospa.glyph.Manager.SettingsManager;
 import co.aospa.glyph.Preference.GlyphAnimationPreference;
 import co.aospa.glyph.Utils.ResourceUtils;
@@ -67,7 +68,7 @@ public class CallSettingsFragment extends PreferenceFragment implements OnPrefer
         mListPreference.setEntries(ResourceUtils.getCallAnimations());
         mListPreference.setEntryValues(ResourceUtils.getCallAnimations());
         if (!ArrayUtils.contains(ResourceUtils.getCallAnimations(), mListPreference.getValue())) {
-            mListPreference.setValue(ResourceUtils.getString("glyph_settings_call_animations_default"));
+            mListPreference.setValue(DeviceProfile.get().getDefaultCallAnimation());
         }
 
         mGlyphAnimationPreference = (GlyphAnimationPreference) findPreference(Constants.GLYPH_CALL_SUB_PREVIEW);
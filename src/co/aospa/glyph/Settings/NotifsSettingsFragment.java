@@ -42,6 +42,7 @@ import java.util.List;
 
 import co.aospa.glyph.R;
 import co.aospa.glyph.Constants.Constants;
+import co.aospa.glyph.Constants.DeviceProfile;
 import co.aospa.glyph.Manager.SettingsManager;
 import co.aospa.glyph.Preference.GlyphAnimationPreference;
 import co.aospa.glyph.Utils.ResourceUtils;
@@ -85,7 +86,7 @@ public class NotifsSettingsFragment extends PreferenceFragment implements OnPref
         mListPreference.setEntries(ResourceUtils.getNotificationAnimations());
         mListPreference.setEntryValues(ResourceUtils.getNotificationAnimations());
         if (!ArrayUtils.contains(ResourceUtils.getNotificationAnimations(), mListPreference.getValue())) {
-            mListPreference.setValue(ResourceUtils.getString("glyph_settings_notifs_animations_default"));
+            mListPreference.setValue(DeviceProfile.get().getDefaultNotifsAnimation());
         }
 
         mGlyphAnimationPreference = (GlyphAnimationPreference) findPreference(Constants.GLYPH_NOTIFS_SUB_PREVIEW);
@@ -39,6 +39,7 @@ import com.android.settingslib.widget.MainSwitchPreference;
 
 import co.aospa.glyph.R;
 import co.aospa.glyph.Constants.Constants;
+import co.aospa.glyph.Constants.DeviceProfile;
 import co.aospa.glyph.Manager.SettingsManager;
 import co.aospa.glyph.Utils.ServiceUtils;
 
@@ -82,7 +83,7 @@ public class SettingsFragment extends PreferenceFragment implements OnPreference
         mBrightnessPreference = (SeekBarPreference) findPreference(Constants.GLYPH_BRIGHTNESS);
         mBrightnessPreference.setEnabled(glyphEnabled);
         mBrightnessPreference.setMin(1);
-        mBrightnessPreference.setMax(Constants.getBrightnessLevels().length);
+        mBrightnessPreference.setMax(DeviceProfile.get().getBrightnessLevelCount());
         mBrightnessPreference.setValue(SettingsManager.getGlyphBrightnessSetting());
         mBrightnessPreference.setUpdatesContinuously(true);
         mBrightnessPreference.setOnPreferenceChangeListener(this);
@@ -137,6 +138,10 @@ public class SettingsFragment extends PreferenceFragment implements OnPreference
             SettingsManager.setGlyphCallEnabled(!mCallPreference.isChecked());
         }
 
+        if (preferenceKey.equals(Constants.GLYPH_BRIGHTNESS)) {
+            Constants.setBrightnessLevel((Integer) newValue);
+        }
+
         if (preferenceKey.equals(Constants.GLYPH_NOTIFS_ENABLE)) {
             SettingsManager.setGlyphNotifsEnabled(!mNotifsPreference.isChecked());
         }
@@ -18,24 +18,40 @@
 
 package co.aospa.glyph.Tiles;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
 
 import co.aospa.glyph.R;
-import co.aospa.glyph.Constants.Constants;
+import co.aospa.glyph.Manager.AnimationManager;
 import co.aospa.glyph.Manager.StatusManager;
-import co.aospa.glyph.Utils.FileUtils;
-import co.aospa.glyph.Utils.ResourceUtils;
 
 /** Quick settings tile: Glyph **/
 public class TorchTileService extends TileService {
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Follows the torch state, whoever changes it
+    private final StatusManager.StatusListener mStatusListener = (oldStatus, newStatus) -> {
+        if (((oldStatus ^ newStatus) & StatusManager.ALL_LED_ACTIVE) != 0)
+            mHandler.post(this::updateState);
+    };
+
     @Override
     public void onStartListening() {
         super.onStartListening();
+        StatusManager.addListener(mStatusListener);
         updateState();
     }
 
+    @Override
+    public void onStopListening() {
+        StatusManager.removeListener(mStatusListener);
+        mHandler.removeCallbacksAndMessages(null);
+        super.onStopListening();
+    }
+
     private void updateState() {
         boolean enabled = getEnabled();
         getQsTile().setContentDescription(enabled ?
@@ -49,7 +65,6 @@ public class TorchTileService extends TileService {
     public void onClick() {
         super.onClick();
         setEnabled(!getEnabled());
-        updateState();
     }
 
     private boolean getEnabled() {
@@ -57,11 +72,6 @@ public class TorchTileService extends TileService {
     }
 
     private void setEnabled(boolean enabled) {
-        StatusManager.setAllLedsActive(enabled);
-        FileUtils.writeAllLed(enabled ? Constants.getMaxBrightness() : 0);
-        if (StatusManager.isEssentialLedActive() && !enabled)
-            FileUtils.writeSingleLed(
-                ResourceUtils.getInteger("glyph_settings_notifs_essential_led"),
-                Constants.getMaxBrightness( )/ 100 * 7);
+        AnimationManager.setTorchActive(enabled);
     }
 }
@@ -28,12 +28,39 @@ import java.io.IOException;
 import java.util.Arrays;
 
 import co.aospa.glyph.Constants.Constants;
+import co.aospa.glyph.Constants.DeviceProfile;
+import co.aospa.glyph.Driver.GlyphLedDriver;
+import co.aospa.glyph.Driver.SysfsLedDriver;
 
 public final class FileUtils {
 
     private static final String TAG = "GlyphFileUtils";
     private static final boolean DEBUG = true;
 
+    // Every LED write goes through this driver, serialized by frameLock
+    private static final Object frameLock = new Object();
+    private static GlyphLedDriver ledDriver = null;
+
+    // Last frame written to the hardware, only meaningful while lastFrameValid
+    private static int[] lastFrame = new int[0];
+    private static boolean lastFrameValid = false;
+    private static long frameWritesIssued = 0;
+    private static long frameWritesSkipped = 0;
+    private static long frameWriteTotalNanos = 0;
+    private static long frameWriteMaxNanos = 0;
+    // Bumped when every LED gets lit, frames published before are stale
+    private static volatile long frameGeneration = 0;
+
+    // Frames changing only LEDs that can be written one by one may be cheaper to write
+    // that way, the cost of both paths is calibrated at startup and refined on every write
+    private static final int CALIBRATION_WRITES = 5;
+    // Single LED of each frame position, indexed by frame length, null when there is none
+    private static int[][] singleLeds = new int[0][];
+    // Cost of a frame write, indexed by frame length
+    private static long[] frameWriteNanos = new long[0];
+    private static long singleWriteNanos = 0;
+    private static long sparseFrameWrites = 0;
+
     public static String readLine(String fileName) {
         String line = null;
         BufferedReader reader = null;
@@ -64,26 +91,19 @@ public final class FileUtils {
         return 0;
     }
 
-    public static void writeLine(String fileName, String value) {
-        String modePath = ResourceUtils.getString("glyph_settings_paths_mode_absolute");
-        BufferedWriter writerMode = null;
+    public static boolean writeLine(String fileName, String value) {
         BufferedWriter writerValue = null;
         try {
-            if (!modePath.isBlank()) {
-                writerMode = new BufferedWriter(new FileWriter(modePath));
-                writerMode.write("1");
-            }
             writerValue = new BufferedWriter(new FileWriter(fileName));
             writerValue.write(value);
+            writerValue.flush();
+            return true;
         } catch (FileNotFoundException e) {
             Log.w(TAG, "No such file " + fileName + " for writing", e);
         } catch (IOException e) {
             Log.e(TAG, "Could not write to file " + fileName, e);
         } finally {
             try {
-                if (writerMode != null) {
-                    writerMode.close();
-                }
                 if (writerValue != null) {
                     writerValue.close();
                 }
@@ -91,46 +111,249 @@ public final class FileUtils {
                 // Ignored, not much we can do anyway
             }
         }
+        return false;
+    }
+
+    public static boolean writeLine(String fileName, int value) {
+        return writeLine(fileName, Integer.toString(value));
+    }
+
+    public static boolean writeLine(String fileName, float value) {
+        return writeLine(fileName, Float.toString(value));
+    }
+
+    /** Driver the LEDs are written through, the device's sysfs nodes unless replaced. */
+    public static GlyphLedDriver getLedDriver() {
+        synchronized (frameLock) {
+            if (ledDriver == null)
+                ledDriver = SysfsLedDriver.fromProfile(DeviceProfile.get());
+
+            return ledDriver;
+        }
+    }
+
+    /**
+     * Sends all LED output to {@code driver} from now on. The previous driver is
+     * closed, and nothing is assumed about what the new one shows.
+     */
+    public static void setLedDriver(GlyphLedDriver driver) {
+        synchronized (frameLock) {
+            if (ledDriver != null && ledDriver != driver) ledDriver.close();
+            ledDriver = driver;
+            overrideFrames();
+            Arrays.fill(frameWriteNanos, 0);
+            singleWriteNanos = 0;
+        }
+    }
+
+    private static void rememberFrame(int[] value) {
+        if (lastFrame.length != value.length) {
+            lastFrame = new int[value.length];
+        }
+        System.arraycopy(value, 0, lastFrame, 0, value.length);
+        lastFrameValid = true;
     }
 
-    public static void writeLine(String fileName, int value) {
-        writeLine(fileName, Integer.toString(value));
+    // Called with frameLock held before lighting every LED, which overrides any frame
+    private static void overrideFrames() {
+        lastFrameValid = false;
+        frameGeneration++;
     }
 
-    public static void writeLine(String fileName, float value) {
-        writeLine(fileName, Float.toString(value));
+    public static long getFrameGeneration() {
+        return frameGeneration;
+    }
+
+    public static long getFrameWritesIssued() {
+        synchronized (frameLock) {
+            return frameWritesIssued;
+        }
+    }
+
+    public static long getFrameWritesSkipped() {
+        synchronized (frameLock) {
+            return frameWritesSkipped;
+        }
+    }
+
+    /** Average time spent writing a frame to the driver, in nanoseconds. */
+    public static long getFrameWriteLatencyNanos() {
+        synchronized (frameLock) {
+            return frameWritesIssued > 0 ? frameWriteTotalNanos / frameWritesIssued : 0;
+        }
+    }
+
+    public static long getMaxFrameWriteLatencyNanos() {
+        synchronized (frameLock) {
+            return frameWriteMaxNanos;
+        }
+    }
+
+    public static long getSparseFrameWrites() {
+        synchronized (frameLock) {
+            return sparseFrameWrites;
+        }
+    }
+
+    /**
+     * Measures the cost of a frame write of every supported length and of a single
+     * LED write against the real nodes, by blanking the LEDs a few times. Meant to
+     * run once at startup.
+     */
+    public static void calibrateWriteCosts() {
+        DeviceProfile profile = DeviceProfile.get();
+        int essentialLed = profile.getEssentialLed();
+        int maxLength = 0;
+        for (int length : profile.getSupportedPatternLengths()) {
+            if (profile.getEssentialFrameLed(length) >= 0) maxLength = Math.max(maxLength, length);
+        }
+        if (maxLength == 0) {
+            if (DEBUG) Log.d(TAG, "No single LED mapping, frames will be written whole");
+            return;
+        }
+        synchronized (frameLock) {
+            GlyphLedDriver driver = getLedDriver();
+            int[][] leds = new int[maxLength + 1][];
+            long[] frameCosts = new long[maxLength + 1];
+            long[] samples = new long[CALIBRATION_WRITES];
+            boolean written = true;
+            int[] blank = null;
+            for (int length : profile.getSupportedPatternLengths()) {
+                if (profile.getEssentialFrameLed(length) < 0) continue;
+                leds[length] = profile.getSingleLeds(length);
+                blank = new int[length];
+                for (int i = 0; i < CALIBRATION_WRITES; i++) {
+                    long start = System.nanoTime();
+                    written &= driver.writeFrame(blank);
+                    samples[i] = System.nanoTime() - start;
+                }
+                frameCosts[length] = median(samples);
+            }
+            for (int i = 0; i < CALIBRATION_WRITES; i++) {
+                long start = System.nanoTime();
+                written &= driver.writeSingle(essentialLed, 0);
+                samples[i] = System.nanoTime() - start;
+            }
+            if (!written) {
+                Log.w(TAG, "Could not calibrate write costs, frames will be written whole");
+                lastFrameValid = false;
+                return;
+            }
+            singleLeds = leds;
+            frameWriteNanos = frameCosts;
+            singleWriteNanos = median(samples);
+            rememberFrame(blank);
+            if (DEBUG) Log.d(TAG, "Calibrated write costs | frame: " + Arrays.toString(frameCosts)
+                    + "ns | single: " + singleWriteNanos + "ns");
+        }
+    }
+
+    private static long median(long[] samples) {
+        Arrays.sort(samples);
+        return samples[samples.length / 2];
+    }
+
+    /** Closes the LED nodes, they are opened again on the next write. */
+    public static void closeLedNodes() {
+        synchronized (frameLock) {
+            if (ledDriver != null) ledDriver.close();
+        }
     }
 
     public static void writeAllLed(String value) {
-        writeLine(ResourceUtils.getString("glyph_settings_paths_all_absolute"), value);
+        writeAllLed(Integer.parseInt(value.trim()));
     }
 
     public static void writeAllLed(int value) {
-        writeAllLed(Integer.toString(value));
+        synchronized (frameLock) {
+            overrideFrames();
+            getLedDriver().writeAll(value);
+        }
     }
 
     public static void writeAllLed(float value) {
-        writeAllLed(Integer.toString(Math.round(value)));
+        writeAllLed(Math.round(value));
     }
 
-    public static void writeFrameLed(String value) {
-        writeLine(ResourceUtils.getString("glyph_settings_paths_frame_absolute"), value);
+    public static void writeFrameLed(int[] value) {
+        synchronized (frameLock) {
+            // Holds and blank tails repeat the same frame, the LEDs already show it
+            if (lastFrameValid && Arrays.equals(lastFrame, value)) {
+                frameWritesSkipped++;
+                return;
+            }
+            GlyphLedDriver driver = getLedDriver();
+            long start = System.nanoTime();
+            int changed = countSingleWrites(value);
+            boolean written;
+            if (changed > 0 && singleWriteNanos > 0
+                    && changed * singleWriteNanos < frameWriteNanos[value.length]) {
+                written = writeChangedLeds(driver, value);
+                sparseFrameWrites++;
+            } else {
+                written = driver.writeFrame(value);
+                if (value.length < frameWriteNanos.length && frameWriteNanos[value.length] > 0) {
+                    frameWriteNanos[value.length] = refineCost(frameWriteNanos[value.length],
+                            System.nanoTime() - start);
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            frameWritesIssued++;
+            frameWriteTotalNanos += nanos;
+            if (nanos > frameWriteMaxNanos) frameWriteMaxNanos = nanos;
+            if (written) {
+                rememberFrame(value);
+            } else {
+                lastFrameValid = false;
+            }
+        }
     }
 
-    public static void writeFrameLed(int[] value) {
-        writeFrameLed(Arrays.toString(value).replaceAll("\\[|\\]", "").replace(", ", " "));
+    // LEDs that differ from the last frame, -1 if one of them has no single LED to write
+    private static int countSingleWrites(int[] value) {
+        if (!lastFrameValid || lastFrame.length != value.length
+                || value.length >= singleLeds.length || singleLeds[value.length] == null) {
+            return -1;
+        }
+        int[] leds = singleLeds[value.length];
+        int changed = 0;
+        for (int i = 0; i < value.length; i++) {
+            if (lastFrame[i] == value[i]) continue;
+            if (leds[i] < 0) return -1;
+            changed++;
+        }
+        return changed;
     }
 
-    public static void writeFrameLed(float[] value) {
-        int[] intValue = new int[value.length];
+    private static boolean writeChangedLeds(GlyphLedDriver driver, int[] value) {
+        int[] leds = singleLeds[value.length];
         for (int i = 0; i < value.length; i++) {
-            intValue[i] = Math.round(value[i]);
+            if (lastFrame[i] == value[i]) continue;
+            long start = System.nanoTime();
+            if (!driver.writeSingle(leds[i], value[i])) return false;
+            singleWriteNanos = refineCost(singleWriteNanos, System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    private static long refineCost(long cost, long sample) {
+        return cost == 0 ? sample : cost + ((sample - cost) >> 3);
+    }
+
+    /**
+     * Writes a frame published at {@code generation}, unless every LED was lit
+     * since. Returns false if the frame was dropped as stale.
+     */
+    public static boolean writeFrameLed(int[] value, long generation) {
+        synchronized (frameLock) {
+            if (generation != frameGeneration) return false;
+            writeFrameLed(value);
+            return true;
         }
-        writeFrameLed(intValue);
     }
 
     public static void writeSingleLed(String led, String value) {
-        writeLine(ResourceUtils.getString("glyph_settings_paths_single_absolute"), led + " " + value);
+        writeSingleLed(Integer.parseInt(led.trim()), Math.round(Float.parseFloat(value.trim())));
     }
 
     public static void writeSingleLed(int led, String value) {
@@ -138,14 +361,23 @@ public final class FileUtils {
     }
 
     public static void writeSingleLed(String led, int value) {
-        writeSingleLed(led, Integer.toString(value));
+        writeSingleLed(Integer.parseInt(led.trim()), value);
     }
 
     public static void writeSingleLed(String led, float value) {
-        writeSingleLed(led, Integer.toString(Math.round(value)));
+        writeSingleLed(Integer.parseInt(led.trim()), Math.round(value));
+    }
+
+    public static void writeSingleLed(int led, int value) {
+        // Frames published before go out first, the single LED lands on top of them
+        LedWriter.flush();
+        synchronized (frameLock) {
+            lastFrameValid = false;
+            getLedDriver().writeSingle(led, value);
+        }
     }
 
     public static void writeSingleLed(int led, float value) {
-        writeSingleLed(Integer.toString(led), Integer.toString(Math.round(value)));
+        writeSingleLed(led, Math.round(value));
     }
 }
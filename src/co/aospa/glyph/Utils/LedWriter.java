@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.aospa.glyph.Utils;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes frames to the LEDs from a dedicated thread, so that a slow write
+ * does not hold back the animation. Animations only publish frames into a
+ * single slot mailbox; a frame published before the previous one got written
+ * replaces it, the writer always pushes the newest frame.
+ */
+public final class LedWriter {
+
+    private static final String TAG = "GlyphLedWriter";
+    private static final boolean DEBUG = true;
+
+    private static final class Frame {
+        int[] values = new int[0];
+        long generation;
+        long publishNanos;
+    }
+
+    private static final AtomicReference<Frame> mailbox = new AtomicReference<>(null);
+    // Held while a frame is taken out of the mailbox and written, so a flush waits for it
+    private static final Object writeLock = new Object();
+    // Frames go back and forth between animations and the writer instead of being allocated
+    private static final AtomicReference<Frame> spare = new AtomicReference<>(null);
+
+    private static final AtomicLong supersededCount = new AtomicLong();
+    private static final AtomicLong staleCount = new AtomicLong();
+    private static final AtomicLong writtenCount = new AtomicLong();
+    private static final AtomicLong totalDelayNanos = new AtomicLong();
+    private static final AtomicLong maxDelayNanos = new AtomicLong();
+
+    private static Thread writer = null;
+
+    /** Queues a copy of {@code values} to be written, replacing any frame not written yet. */
+    public static void publish(int[] values) {
+        Thread thread = getWriter();
+        Frame frame = spare.getAndSet(null);
+        if (frame == null) frame = new Frame();
+        if (frame.values.length != values.length) frame.values = new int[values.length];
+        System.arraycopy(values, 0, frame.values, 0, values.length);
+        frame.generation = FileUtils.getFrameGeneration();
+        frame.publishNanos = System.nanoTime();
+
+        Frame previous = mailbox.getAndSet(frame);
+        if (previous != null) {
+            supersededCount.incrementAndGet();
+            spare.compareAndSet(null, previous);
+        }
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Writes the pending frame, if any, on the calling thread. Returns once every
+     * frame published so far reached the LEDs, so that a write bypassing frames
+     * lands after them.
+     */
+    public static void flush() {
+        synchronized (writeLock) {
+            Frame frame = mailbox.getAndSet(null);
+            if (frame != null) write(frame);
+        }
+    }
+
+    /** Frames replaced by a newer one before the writer got to them. */
+    public static long getSupersededCount() {
+        return supersededCount.get();
+    }
+
+    /** Frames dropped because every LED was lit, by the torch, after they were published. */
+    public static long getStaleCount() {
+        return staleCount.get();
+    }
+
+    /** Average time a frame waited in the mailbox, in nanoseconds. */
+    public static long getQueueDelayNanos() {
+        long written = writtenCount.get();
+        return written > 0 ? totalDelayNanos.get() / written : 0;
+    }
+
+    public static long getMaxQueueDelayNanos() {
+        return maxDelayNanos.get();
+    }
+
+    private static synchronized Thread getWriter() {
+        if (writer == null) {
+            writer = new Thread(LedWriter::run, "GlyphLedWriter");
+            writer.setDaemon(true);
+            writer.start();
+            if (DEBUG) Log.d(TAG, "Started LED writer");
+        }
+        return writer;
+    }
+
+    private static void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        while (true) {
+            boolean written;
+            synchronized (writeLock) {
+                Frame frame = mailbox.getAndSet(null);
+                written = frame != null;
+                if (written) write(frame);
+            }
+            if (!written) LockSupport.park(LedWriter.class);
+        }
+    }
+
+    // Called with writeLock held
+    private static void write(Frame frame) {
+        long delay = System.nanoTime() - frame.publishNanos;
+        writtenCount.incrementAndGet();
+        totalDelayNanos.addAndGet(delay);
+        maxDelayNanos.accumulateAndGet(delay, Math::max);
+        try {
+            if (!FileUtils.writeFrameLed(frame.values, frame.generation)) {
+                staleCount.incrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            // Keep the writer alive for the next frames
+            Log.e(TAG, "Could not write frame", e);
+        }
+        spare.compareAndSet(null, frame);
+    }
+}
@@ -16,18 +16,30 @@
 
 package co.aospa.glyph.Utils;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.content.res.AssetManager;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.util.Log;
+import android.util.LruCache;
 
 import com.android.internal.util.ArrayUtils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import co.aospa.glyph.R;
+import co.aospa.glyph.Animation.GlyphAnimation;
 import co.aospa.glyph.Constants.Constants;
+import co.aospa.glyph.Constants.DeviceProfile;
 
 public final class ResourceUtils {
 
@@ -42,6 +54,34 @@ public final class ResourceUtils {
     private static String[] callAnimations = null;
     private static String[] notificationAnimations = null;
 
+    private static long assetsStamp = -1;
+
+    private static final LruCache<String, GlyphAnimation> animationCache =
+            new LruCache<String, GlyphAnimation>(
+                    getInteger("glyph_settings_animations_cache_size") * 1024) {
+                @Override
+                protected int sizeOf(String path, GlyphAnimation animation) {
+                    return animation.getByteSize();
+                }
+            };
+
+    static {
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimAnimationCache(level);
+            }
+
+            @Override
+            public void onLowMemory() {
+                trimAnimationCache(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) { }
+        });
+    }
+
     public static int getIdentifier(String id, String type) {
         return context.getResources().getIdentifier(id, type, context.getPackageName());
     }
@@ -92,37 +132,137 @@ public final class ResourceUtils {
         return notificationAnimations;
     }
 
-    public static InputStream getCallAnimation(String name) throws IOException {
+    private static String getCallAnimationPath(String name) {
         if (callAnimations == null) getCallAnimations();
 
         if (ArrayUtils.contains(callAnimations, name))
-            return assetManager.open("call/" + name + ".csv");
+            return "call/" + name;
 
-        return assetManager.open("call/" + ResourceUtils.getString("glyph_settings_call_animations_default") + ".csv");
+        return "call/" + DeviceProfile.get().getDefaultCallAnimation();
     }
 
-    public static InputStream getNotificationAnimation(String name) throws IOException {
+    private static String getNotificationAnimationPath(String name) {
         if (notificationAnimations == null) getNotificationAnimations();
 
         if (ArrayUtils.contains(notificationAnimations, name))
-            return assetManager.open("notification/" + name + ".csv");
+            return "notification/" + name;
 
-        return assetManager.open("call/" + ResourceUtils.getString("glyph_settings_notifs_animations_default") + ".csv");
+        return "call/" + DeviceProfile.get().getDefaultNotifsAnimation();
     }
 
-    public static InputStream getAnimation(String name) throws IOException {
+    private static String getAnimationPath(String name) {
         if (callAnimations == null) getCallAnimations();
         if (notificationAnimations == null) getNotificationAnimations();
 
         if (ArrayUtils.contains(callAnimations, name)) {
-            return getCallAnimation(name);
+            return getCallAnimationPath(name);
         }
 
         if (ArrayUtils.contains(notificationAnimations, name)) {
-            return getNotificationAnimation(name);
+            return getNotificationAnimationPath(name);
+        }
+
+        return name;
+    }
+
+    public static InputStream getCallAnimation(String name) throws IOException {
+        return assetManager.open(getCallAnimationPath(name) + ".csv");
+    }
+
+    public static InputStream getNotificationAnimation(String name) throws IOException {
+        return assetManager.open(getNotificationAnimationPath(name) + ".csv");
+    }
+
+    public static InputStream getAnimation(String name) throws IOException {
+        return assetManager.open(getAnimationPath(name) + ".csv");
+    }
+
+    public static GlyphAnimation getCallAnimationFrames(String name) throws IOException {
+        return loadAnimationFrames(getCallAnimationPath(name));
+    }
+
+    public static GlyphAnimation getNotificationAnimationFrames(String name) throws IOException {
+        return loadAnimationFrames(getNotificationAnimationPath(name));
+    }
+
+    public static GlyphAnimation getAnimationFrames(String name) throws IOException {
+        return loadAnimationFrames(getAnimationPath(name));
+    }
+
+    public static void trimAnimationCache(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            if (DEBUG) Log.d(TAG, "Dropping animation cache | level: " + level);
+            animationCache.evictAll();
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            if (DEBUG) Log.d(TAG, "Trimming animation cache | level: " + level);
+            animationCache.trimToSize(animationCache.maxSize() / 2);
+        }
+    }
+
+    private static GlyphAnimation loadAnimationFrames(String path) throws IOException {
+        GlyphAnimation animation = animationCache.get(path);
+        if (animation == null) {
+            animation = readAnimationFrames(path);
+            animationCache.put(path, animation);
+        }
+        return animation;
+    }
+
+    /*
+     * The CSV assets are only parsed once per install: the packed frames are
+     * kept in the cache dir and stamped with the package update time, so they
+     * get recompiled whenever the assets may have changed.
+     */
+    private static GlyphAnimation readAnimationFrames(String path) throws IOException {
+        File compiled = new File(new File(context.getCacheDir(), "animations"),
+                path.replace('/', '_') + ".glyph");
+        long stamp = getAssetsStamp();
+
+        if (compiled.isFile()) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(compiled))) {
+                GlyphAnimation animation = GlyphAnimation.read(in, compiled.length());
+                if (animation.getStamp() == stamp) return animation;
+                if (DEBUG) Log.d(TAG, "Compiled animation is stale | path: " + path);
+            } catch (IOException | RuntimeException e) {
+                // Compiled again below, a bad file must not stick around
+                Log.w(TAG, "Could not read compiled animation " + compiled, e);
+                compiled.delete();
+            }
         }
 
-        return assetManager.open(name + ".csv");
+        GlyphAnimation animation;
+        try (InputStream in = assetManager.open(path + ".csv")) {
+            animation = GlyphAnimation.fromCsv(in, GlyphAnimation.DEFAULT_FPS).withStamp(stamp);
+        }
+        if (DEBUG) Log.d(TAG, "Compiled animation | path: " + path
+                + " | frames: " + animation.getFrameCount() + " | leds: " + animation.getLedCount());
+
+        File temp = new File(compiled.getPath() + ".tmp");
+        compiled.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+            animation.write(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write compiled animation " + compiled, e);
+            temp.delete();
+            return animation;
+        }
+        if (!temp.renameTo(compiled)) temp.delete();
+
+        return animation;
+    }
+
+    private static long getAssetsStamp() {
+        if (assetsStamp == -1) {
+            try {
+                assetsStamp = context.getPackageManager()
+                        .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                assetsStamp = 0;
+            }
+        }
+        return assetsStamp;
     }
 
 }
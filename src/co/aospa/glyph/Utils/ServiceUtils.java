@@ -151,6 +151,8 @@ public final class ServiceUtils {
             stopFlipToGlyphService();
             stopMusicVisualizerService();
             stopVolumeLevelService();
+            // Nothing lights the LEDs anymore, they are reopened if that changes
+            FileUtils.closeLedNodes();
         }
     }
 }